@@ -0,0 +1,174 @@
+package common;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+//Extracts PDF text in page ranges on a shared pool of workers.  Each worker opens its own PDDocument, since
+//PDFBox documents are not thread safe, and keeps at most maxMainMemoryBytes of the parsed file in memory
+//before spilling to a scratch file.  A document is split into at most one contiguous range per worker, so
+//the file is parsed no more than threads times however long it is; pagesPerTask is the smallest range worth
+//a separate parse.  Ranges are handed to the listener in page order as they complete.
+public class PDFTextExtractor {
+	final static Logger logger = LogManager.getLogger(PDFTextExtractor.class);
+
+	@FunctionalInterface
+	public interface PageListener {
+		void pagesExtracted(int endPage, int pageCount, String text);
+	}
+
+	private static PDFTextExtractor instance;
+
+	private final ExecutorService executor;
+	private final int threads;
+	private final int pagesPerTask;
+	private final int maxPages;
+	private final long timeoutMillis;
+	private final long maxMainMemoryBytes;
+
+	public static synchronized PDFTextExtractor getInstance() {
+		if (instance == null) {
+			instance = new PDFTextExtractor(
+					Tools.getIntProperty("pdf.extractThreads", Runtime.getRuntime().availableProcessors()),
+					Tools.getIntProperty("pdf.pagesPerTask", 25),
+					Tools.getIntProperty("pdf.maxPages", 0),
+					Tools.getLongProperty("pdf.extractTimeout", 300000),
+					Tools.getLongProperty("pdf.maxMainMemoryBytes", 64L * 1024 * 1024));
+		}
+		return instance;
+	}
+
+	public PDFTextExtractor(int threads, int pagesPerTask, int maxPages, long timeoutMillis, long maxMainMemoryBytes) {
+		this.threads = Math.max(1, threads);
+		this.pagesPerTask = Math.max(1, pagesPerTask);
+		this.maxPages = maxPages;
+		this.timeoutMillis = timeoutMillis;
+		this.maxMainMemoryBytes = maxMainMemoryBytes;
+
+		AtomicInteger threadNum = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(this.threads, r -> {
+			Thread thread = new Thread(r, "PDF-extract-" + threadNum.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public int getPageCount(File pdfFile) throws IOException {
+		try (PDDocument document = load(pdfFile)) {
+			return document.getNumberOfPages();
+		}
+	}
+
+	public String extract(File pdfFile) throws IOException {
+		return extract(pdfFile, 0, null);
+	}
+
+	//Extracts every page up to the configured page limit.  pageCount is the number of pages in the document if
+	//the caller already knows it, or 0 to read it from the file first.  Throws an IOException if the document
+	//cannot be read or the extraction does not finish within the configured timeout (0 disables both limits).
+	public String extract(File pdfFile, int pageCount, PageListener listener) throws IOException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		if (pageCount <= 0) {
+			pageCount = getPageCount(pdfFile);
+		}
+		int lastPage = maxPages > 0 ? Math.min(pageCount, maxPages) : pageCount;
+		if (lastPage < pageCount) {
+			logger.warn("Extracting the first " + lastPage + " of " + pageCount + " pages of " + pdfFile.getName());
+		}
+
+		int rangeCount = Math.max(1, Math.min(threads, (lastPage + pagesPerTask - 1) / pagesPerTask));
+		int rangeSize = Math.max(1, (lastPage + rangeCount - 1) / rangeCount);
+		List<Future<String>> ranges = new ArrayList<>();
+		for (int startPage = 1; startPage <= lastPage; startPage += rangeSize) {
+			int start = startPage;
+			int end = Math.min(startPage + rangeSize - 1, lastPage);
+			ranges.add(executor.submit(() -> extractPages(pdfFile, start, end)));
+		}
+
+		StringBuilder text = new StringBuilder();
+		try {
+			for (int i = 0; i < ranges.size(); i++) {
+				String rangeText = await(ranges.get(i), deadline, pdfFile);
+				text.append(rangeText);
+				if (listener != null) {
+					listener.pagesExtracted(Math.min((i + 1) * rangeSize, lastPage), lastPage, rangeText);
+				}
+			}
+		} finally {
+			//ranges that have not started yet are dropped when extraction fails or times out
+			ranges.forEach(p -> p.cancel(true));
+		}
+		return text.toString();
+	}
+
+	//Extracts up to sampleSize single pages spread evenly over the pages that extract would read.  The number
+	//of pages in the document is passed to pageCountListener, so that extract does not need to load it again.
+	public String samplePages(File pdfFile, int sampleSize, IntConsumer pageCountListener) throws IOException {
+		try (PDDocument document = load(pdfFile)) {
+			int pageCount = document.getNumberOfPages();
+			if (pageCountListener != null) {
+				pageCountListener.accept(pageCount);
+			}
+			int lastPage = maxPages > 0 ? Math.min(pageCount, maxPages) : pageCount;
+			int samples = Math.min(sampleSize, lastPage);
+
+			PDFTextStripper pdfStripper = new PDFTextStripper();
+			StringBuilder text = new StringBuilder();
+			for (int i = 0; i < samples; i++) {
+				int page = samples == 1 ? 1 : 1 + (int) ((long) i * (lastPage - 1) / (samples - 1));
+				pdfStripper.setStartPage(page);
+				pdfStripper.setEndPage(page);
+				text.append(pdfStripper.getText(document));
+			}
+			return text.toString();
+		}
+	}
+
+	public String extractPages(File pdfFile, int startPage, int endPage) throws IOException {
+		try (PDDocument document = load(pdfFile)) {
+			PDFTextStripper pdfStripper = new PDFTextStripper();
+			pdfStripper.setStartPage(startPage);
+			pdfStripper.setEndPage(endPage);
+			return pdfStripper.getText(document);
+		}
+	}
+
+	private PDDocument load(File pdfFile) throws IOException {
+		MemoryUsageSetting memoryUsage = maxMainMemoryBytes > 0 ? MemoryUsageSetting.setupMixed(maxMainMemoryBytes) : MemoryUsageSetting.setupMainMemoryOnly();
+		return PDDocument.load(pdfFile, memoryUsage);
+	}
+
+	private String await(Future<String> range, long deadline, File pdfFile) throws IOException {
+		try {
+			if (timeoutMillis <= 0) {
+				return range.get();
+			}
+			return range.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			throw new IOException("Text extraction of " + pdfFile.getName() + " timed out after " + timeoutMillis + " ms");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Text extraction of " + pdfFile.getName() + " was interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+}
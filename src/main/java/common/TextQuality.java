@@ -0,0 +1,46 @@
+package common;
+
+//Running character statistics for extracted text, used to recognize PDFs whose fonts have no usable unicode
+//mapping.  Text can be added piece by piece as pages are extracted, so the whole document never has to be
+//scanned a second time.
+public class TextQuality {
+
+	private long chars;
+	private long asciiChars;
+	private long unmappedChars;
+
+	public synchronized void add(CharSequence text) {
+		if (text == null) {
+			return;
+		}
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				asciiChars++;
+			}
+			//glyphs without a unicode mapping come out as replacement characters, private use code points or
+			//stray control characters
+			if (c == '\uFFFD' || (c >= '\uE000' && c <= '\uF8FF') || (Character.isISOControl(c) && !Character.isWhitespace(c))) {
+				unmappedChars++;
+			}
+		}
+		chars += length;
+	}
+
+	public synchronized long getChars() {
+		return chars;
+	}
+
+	public synchronized double getAsciiRatio() {
+		return chars > 0 ? (double) asciiChars / chars : 1.0;
+	}
+
+	public synchronized double getUnmappedRatio() {
+		return chars > 0 ? (double) unmappedChars / chars : 0.0;
+	}
+
+	public boolean isReadable(double minAsciiRatio, double maxUnmappedRatio) {
+		return getAsciiRatio() >= minAsciiRatio && getUnmappedRatio() <= maxUnmappedRatio;
+	}
+}
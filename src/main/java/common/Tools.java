@@ -14,11 +14,6 @@ import org.apache.commons.io.FileUtils;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Charsets;
 import com.google.common.io.Files;
-import org.apache.pdfbox.cos.COSDocument;
-import org.apache.pdfbox.io.RandomAccessFile;
-import org.apache.pdfbox.pdfparser.PDFParser;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.text.PDFTextStripper;
 import org.springframework.core.io.ClassPathResource;
 import webapp.models.JsonResponse;
 
@@ -51,6 +46,34 @@ public class Tools {
 		return getProperties().getProperty(property);
 	}
 
+	public static long getLongProperty(String property, long defaultValue) {
+		String value = getProperty(property);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	public static int getIntProperty(String property, int defaultValue) {
+		return (int) getLongProperty(property, defaultValue);
+	}
+
+	public static double getDoubleProperty(String property, double defaultValue) {
+		String value = getProperty(property);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
 	public static String getResource(String name) {
 		ClassPathResource resource = new ClassPathResource(name);
 		String fileString = null;
@@ -179,24 +202,8 @@ public class Tools {
 	}
 
 	public static String extractPDFText(File pdfFile) {
-		PDFTextStripper pdfStripper = null;
-		PDDocument pdDoc = null;
-		COSDocument cosDoc = null;
 		try {
-			RandomAccessFile randomAccessFile = new RandomAccessFile(pdfFile, "r");
-			PDFParser parser = new PDFParser(randomAccessFile);
-			parser.parse();
-			cosDoc = parser.getDocument();
-			pdfStripper = new PDFTextStripper();
-			pdDoc = new PDDocument(cosDoc);
-			int pageCount = pdDoc.getNumberOfPages();
-			pdfStripper.setStartPage(1);
-			pdfStripper.setEndPage(pageCount - 1);
-			String parsedText = pdfStripper.getText(pdDoc);
-			randomAccessFile.close();
-			pdDoc.close();
-			cosDoc.close();
-			return parsedText;
+			return PDFTextExtractor.getInstance().extract(pdfFile);
 		} catch (IOException e) {
 			return null;
 		}
@@ -0,0 +1,153 @@
+package geoparsing;
+
+import com.bericotech.clavin.extractor.LocationExtractor;
+import com.bericotech.clavin.extractor.LocationOccurrence;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+//Location extractor that tags capitalized spans of text matching US place names from the GeoNames gazetteer,
+//as a fast alternative to the Stanford CRF.  Names are matched word by word, extending a span only while it
+//is still the prefix of some place name, so tagging is linear in the length of the text.  The CLAVIN
+//resolver still disambiguates the tagged names.  Instances are immutable and safe to share between threads.
+public class GazetteerDictionaryExtractor implements LocationExtractor {
+
+    final static Logger logger = LogManager.getLogger(GazetteerDictionaryExtractor.class);
+
+    //columns of the raw GeoNames record stored in the gazetteer index
+    private static final int NAME = 1;
+    private static final int ASCII_NAME = 2;
+    private static final int FEATURE_CLASS = 6;
+    private static final int COUNTRY_CODE = 8;
+
+    //administrative divisions and populated places; other feature classes are mostly generic words
+    private static final Set<String> FEATURE_CLASSES = new HashSet<>(Arrays.asList("A", "P"));
+    private static final int MIN_NAME_LENGTH = 3;
+
+    private final Set<String> names;
+    private final Set<String> prefixes;
+
+    public GazetteerDictionaryExtractor(Collection<String> placeNames) {
+        names = new HashSet<>();
+        prefixes = new HashSet<>();
+        for (String name : placeNames) {
+            names.add(name);
+            for (int i = name.indexOf(' '); i > 0; i = name.indexOf(' ', i + 1)) {
+                prefixes.add(name.substring(0, i));
+            }
+        }
+    }
+
+    //Reads the US place names out of the stored GeoNames records of a CLAVIN gazetteer index.
+    public static GazetteerDictionaryExtractor fromIndex(String indexDirectory) throws IOException {
+        Set<String> placeNames = new HashSet<>();
+        try (Directory directory = FSDirectory.open(new File(indexDirectory));
+             DirectoryReader reader = DirectoryReader.open(directory)) {
+            Bits liveDocs = MultiFields.getLiveDocs(reader);
+            Set<String> fields = Collections.singleton("geoname");
+            for (int i = 0; i < reader.maxDoc(); i++) {
+                if (liveDocs != null && !liveDocs.get(i)) {
+                    continue;
+                }
+                Document doc = reader.document(i, fields);
+                String record = doc.get("geoname");
+                if (record == null) {
+                    continue;
+                }
+                String[] columns = record.split("\t", COUNTRY_CODE + 2);
+                if (columns.length > COUNTRY_CODE && columns[COUNTRY_CODE].equals("US") && FEATURE_CLASSES.contains(columns[FEATURE_CLASS])) {
+                    addName(placeNames, columns[NAME]);
+                    addName(placeNames, columns[ASCII_NAME]);
+                }
+            }
+        }
+        logger.info("Loaded " + placeNames.size() + " place names from " + indexDirectory);
+        return new GazetteerDictionaryExtractor(placeNames);
+    }
+
+    private static void addName(Set<String> placeNames, String name) {
+        name = name.trim();
+        if (name.length() >= MIN_NAME_LENGTH && Character.isUpperCase(name.charAt(0))) {
+            placeNames.add(name);
+        }
+    }
+
+    @Override
+    public List<LocationOccurrence> extractLocationNames(String text) {
+        List<LocationOccurrence> locations = new ArrayList<>();
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            if (Character.isUpperCase(text.charAt(i)) && (i == 0 || !isWordChar(text.charAt(i - 1)))) {
+                int end = matchAt(text, i, locations);
+                if (end > i) {
+                    i = end;
+                    continue;
+                }
+            }
+            i++;
+        }
+        return locations;
+    }
+
+    //Finds the longest place name starting at start, adds it to locations and returns where it ends, or
+    //returns start if there is none.
+    private int matchAt(String text, int start, List<LocationOccurrence> locations) {
+        int length = text.length();
+        StringBuilder candidate = new StringBuilder();
+        String bestMatch = null;
+        int bestEnd = start;
+        int wordStart = start;
+        while (true) {
+            int wordEnd = wordStart;
+            while (wordEnd < length && isWordChar(text.charAt(wordEnd))) {
+                wordEnd++;
+            }
+            candidate.append(text, wordStart, wordEnd);
+            String span = candidate.toString();
+            //a period ending the span is usually the end of a sentence rather than part of the name
+            int trimmed = span.length();
+            while (trimmed > 0 && span.charAt(trimmed - 1) == '.') {
+                trimmed--;
+            }
+            if (names.contains(span)) {
+                bestMatch = span;
+                bestEnd = wordEnd;
+            } else if (trimmed < span.length() && names.contains(span.substring(0, trimmed))) {
+                bestMatch = span.substring(0, trimmed);
+                bestEnd = wordEnd - (span.length() - trimmed);
+            }
+            if (!prefixes.contains(span)) {
+                break;
+            }
+
+            int next = wordEnd;
+            while (next < length && Character.isWhitespace(text.charAt(next))) {
+                next++;
+            }
+            if (next == wordEnd || next >= length) {
+                break;
+            }
+            candidate.append(' ');
+            wordStart = next;
+        }
+
+        if (bestMatch != null) {
+            locations.add(new LocationOccurrence(bestMatch, start));
+        }
+        return bestEnd;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '\'' || c == '-' || c == '.';
+    }
+}
@@ -0,0 +1,180 @@
+package geoparsing;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+//Density filter for geoname coordinates that gives the same result as running DBSCAN with a growing radius
+//until a cluster forms, without rerunning the clustering for each radius.  Points are bucketed in a uniform
+//grid sized for the largest radius, every pair of points within that radius is found once, and each pair is
+//tagged with the first radius step that covers it.  The neighbor counts of all steps then come out of a
+//single pass over those pairs.
+public class GeoGridClusterer {
+
+    public enum DistanceMeasure {
+        //straight line distance between (latitude, longitude) in degrees, as used by DBSCANClusterer
+        DEGREES,
+        //great circle distance, with radii given in degrees of arc
+        HAVERSINE
+    }
+
+    private static final double EARTH_RADIUS_KM = 6371.0;
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+
+    private final DistanceMeasure distanceMeasure;
+
+    public GeoGridClusterer(DistanceMeasure distanceMeasure) {
+        this.distanceMeasure = distanceMeasure;
+    }
+
+    //Returns which points belong to a cluster at the first radius step at which any cluster forms, or no
+    //points if none forms.  Step k uses radius + k * radiusIncrement and halves minClusterSize k times (to no
+    //less than 1), for steps 0 to maxIncrements + 1.  A point belongs to a cluster if it has at least
+    //minClusterSize other points within the radius, or lies within the radius of such a point.
+    public boolean[] cluster(double[] latitudes, double[] longitudes, double radius, int minClusterSize,
+                             double radiusIncrement, int maxIncrements) {
+        int numPoints = latitudes.length;
+        int steps = maxIncrements + 2;
+        double[] radii = new double[steps];
+        int[] minSizes = new int[steps];
+        radii[0] = radius;
+        minSizes[0] = minClusterSize;
+        for (int k = 1; k < steps; k++) {
+            radii[k] = radii[k - 1] + radiusIncrement;
+            minSizes[k] = minSizes[k - 1] / 2 < 1 ? 1 : minSizes[k - 1] / 2;
+        }
+        double maxRadius = radii[0];
+        for (double r : radii) {
+            maxRadius = Math.max(maxRadius, r);
+        }
+
+        //pairs of points within the largest radius, with the first step whose radius covers them
+        int[] pairFirst = new int[16];
+        int[] pairSecond = new int[16];
+        int[] pairStep = new int[16];
+        int numPairs = 0;
+        //neighborCounts[i * steps + k] counts the neighbors of point i first covered at step k
+        int[] neighborCounts = new int[numPoints * steps];
+
+        //cells slightly wider than the largest radius keep every pair in reach within adjacent cells despite
+        //rounding in the cell computation
+        double cellSize = maxRadius > 0 ? maxRadius * 1.000001 : 1;
+        double maxAbsLatitude = 0;
+        for (double latitude : latitudes) {
+            maxAbsLatitude = Math.max(maxAbsLatitude, Math.abs(latitude));
+        }
+        int latitudeReach = 1;
+        int longitudeReach = 1;
+        if (distanceMeasure == DistanceMeasure.HAVERSINE) {
+            //a degree of longitude shrinks with latitude, so more longitude cells can be in reach
+            double cosLatitude = Math.cos(Math.toRadians(Math.min(89.0, maxAbsLatitude + maxRadius)));
+            longitudeReach = (int) Math.ceil(1 / cosLatitude);
+        }
+
+        Map<Long, int[]> grid = buildGrid(latitudes, longitudes, cellSize);
+        for (int i = 0; i < numPoints; i++) {
+            long cellLatitude = (long) Math.floor(latitudes[i] / cellSize);
+            long cellLongitude = (long) Math.floor(longitudes[i] / cellSize);
+            for (long dLat = -latitudeReach; dLat <= latitudeReach; dLat++) {
+                for (long dLon = -longitudeReach; dLon <= longitudeReach; dLon++) {
+                    int[] cell = grid.get(cellKey(cellLatitude + dLat, cellLongitude + dLon));
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (int c = 1; c <= cell[0]; c++) {
+                        int j = cell[c];
+                        if (j <= i) {
+                            continue;
+                        }
+                        double distance = distance(latitudes[i], longitudes[i], latitudes[j], longitudes[j]);
+                        int step = firstStepWithin(distance, radii);
+                        if (step < 0) {
+                            continue;
+                        }
+                        if (numPairs == pairFirst.length) {
+                            pairFirst = Arrays.copyOf(pairFirst, numPairs * 2);
+                            pairSecond = Arrays.copyOf(pairSecond, numPairs * 2);
+                            pairStep = Arrays.copyOf(pairStep, numPairs * 2);
+                        }
+                        pairFirst[numPairs] = i;
+                        pairSecond[numPairs] = j;
+                        pairStep[numPairs] = step;
+                        numPairs++;
+                        neighborCounts[i * steps + step]++;
+                        neighborCounts[j * steps + step]++;
+                    }
+                }
+            }
+        }
+
+        boolean[] core = new boolean[numPoints];
+        int[] neighbors = new int[numPoints];
+        for (int k = 0; k < steps; k++) {
+            boolean anyCore = false;
+            for (int i = 0; i < numPoints; i++) {
+                neighbors[i] += neighborCounts[i * steps + k];
+                core[i] = neighbors[i] >= minSizes[k];
+                anyCore |= core[i];
+            }
+            if (anyCore) {
+                boolean[] clustered = Arrays.copyOf(core, numPoints);
+                for (int p = 0; p < numPairs; p++) {
+                    if (pairStep[p] <= k) {
+                        if (core[pairFirst[p]]) {
+                            clustered[pairSecond[p]] = true;
+                        }
+                        if (core[pairSecond[p]]) {
+                            clustered[pairFirst[p]] = true;
+                        }
+                    }
+                }
+                return clustered;
+            }
+        }
+        return new boolean[numPoints];
+    }
+
+    private static int firstStepWithin(double distance, double[] radii) {
+        for (int k = 0; k < radii.length; k++) {
+            if (distance <= radii[k]) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    //Maps each grid cell to its points; the first slot of a cell holds the number of points in it.
+    private static Map<Long, int[]> buildGrid(double[] latitudes, double[] longitudes, double cellSize) {
+        Map<Long, int[]> grid = new HashMap<>();
+        for (int i = 0; i < latitudes.length; i++) {
+            long key = cellKey((long) Math.floor(latitudes[i] / cellSize), (long) Math.floor(longitudes[i] / cellSize));
+            int[] cell = grid.get(key);
+            if (cell == null) {
+                cell = new int[4];
+            } else if (cell[0] + 1 == cell.length) {
+                cell = Arrays.copyOf(cell, cell.length * 2);
+            }
+            cell[++cell[0]] = i;
+            grid.put(key, cell);
+        }
+        return grid;
+    }
+
+    private static long cellKey(long cellLatitude, long cellLongitude) {
+        return (cellLatitude << 32) ^ (cellLongitude & 0xffffffffL);
+    }
+
+    private double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        if (distanceMeasure == DistanceMeasure.HAVERSINE) {
+            double dLat = Math.toRadians(latitude2 - latitude1);
+            double dLon = Math.toRadians(longitude2 - longitude1);
+            double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                    + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+            double km = 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+            return km / KM_PER_DEGREE;
+        }
+        double dLat = latitude1 - latitude2;
+        double dLon = longitude1 - longitude2;
+        return Math.sqrt(dLat * dLat + dLon * dLon);
+    }
+}
@@ -0,0 +1,117 @@
+package geoparsing;
+
+import com.bericotech.clavin.GeoParser;
+import com.bericotech.clavin.gazetteer.query.Gazetteer;
+import com.bericotech.clavin.nerd.StanfordExtractor;
+import com.bericotech.clavin.resolver.ResolvedLocation;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Pool of CLAVIN GeoParsers.  The Stanford CRF extractor is not safe to share between threads, so each parser
+//gets its own extractor, while the Lucene gazetteer index is opened once and shared by all of them.
+//Parsers are created on first demand up to the pool size, since each extractor holds its own copy of the
+//CRF model in memory.
+public class GeoParserPool {
+
+    final static Logger logger = LogManager.getLogger(GeoParserPool.class);
+
+    private static final String NER_MODEL = "english.all.3class.caseless.distsim.crf.ser.gz";
+    private static final String NER_PROPERTIES = "english.all.3class.caseless.distsim.prop";
+
+    private final Gazetteer gazetteer;
+    private final int size;
+    private final BlockingQueue<GeoParser> idle = new LinkedBlockingQueue<>();
+    private final AtomicInteger created = new AtomicInteger();
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public GeoParserPool(Gazetteer gazetteer, int size) {
+        this.gazetteer = gazetteer;
+        this.size = Math.max(1, size);
+    }
+
+    //Defaults to one parser per core, limited by the heap available for CRF model copies.
+    public static int getDefaultSize(long instanceMemoryBytes) {
+        long byMemory = Runtime.getRuntime().maxMemory() / Math.max(1, instanceMemoryBytes);
+        return (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), byMemory));
+    }
+
+    public List<ResolvedLocation> parse(String text) throws Exception {
+        GeoParser parser = borrow();
+        try {
+            return parser.parse(text);
+        } finally {
+            release(parser);
+        }
+    }
+
+    public GeoParser borrow() throws InterruptedException, IOException, ClassNotFoundException {
+        long start = System.nanoTime();
+        GeoParser parser = idle.poll();
+        if (parser == null) {
+            parser = createIfBelowSize();
+        }
+        if (parser == null) {
+            waiting.incrementAndGet();
+            try {
+                parser = idle.take();
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+        long waitNanos = System.nanoTime() - start;
+        borrows.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+        return parser;
+    }
+
+    public void release(GeoParser parser) {
+        idle.offer(parser);
+    }
+
+    private GeoParser createIfBelowSize() throws IOException, ClassNotFoundException {
+        int count;
+        do {
+            count = created.get();
+            if (count >= size) {
+                return null;
+            }
+        } while (!created.compareAndSet(count, count + 1));
+
+        try {
+            GeoParser parser = new GeoParser(new StanfordExtractor(NER_MODEL, NER_PROPERTIES), gazetteer, 1, 1, false);
+            logger.info("Created geoparser " + (count + 1) + " of " + size);
+            return parser;
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            created.decrementAndGet();
+            throw e;
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long borrowCount = borrows.get();
+        stats.put("size", size);
+        stats.put("created", created.get());
+        stats.put("idle", idle.size());
+        stats.put("waiting", waiting.get());
+        stats.put("borrows", borrowCount);
+        stats.put("avgWaitMillis", borrowCount > 0 ? totalWaitNanos.get() / 1e6 / borrowCount : 0.0);
+        stats.put("maxWaitMillis", TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()));
+        return stats;
+    }
+}
@@ -0,0 +1,16 @@
+package geoparsing;
+
+public enum LocationExtractorType {
+    //Stanford CRF named entity recognizer; best recall, one model copy per pooled parser
+    STANFORD,
+    //gazetteer dictionary tagger; much faster, misses place names that are not capitalized as in GeoNames
+    DICTIONARY;
+
+    //Returns the type named by value, ignoring case, or defaultType when value is empty.
+    public static LocationExtractorType fromString(String value, LocationExtractorType defaultType) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultType;
+        }
+        return valueOf(value.trim().toUpperCase());
+    }
+}
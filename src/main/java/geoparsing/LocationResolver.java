@@ -1,46 +1,78 @@
 package geoparsing;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import com.bericotech.clavin.ClavinException;
 import com.bericotech.clavin.GeoParser;
-import com.bericotech.clavin.GeoParserFactory;
 import com.bericotech.clavin.gazetteer.FeatureClass;
 import com.bericotech.clavin.gazetteer.GeoName;
-import com.bericotech.clavin.nerd.StanfordExtractor;
+import com.bericotech.clavin.gazetteer.query.Gazetteer;
+import com.bericotech.clavin.gazetteer.query.LuceneGazetteer;
 import com.bericotech.clavin.resolver.ResolvedLocation;
 import common.Tools;
-import org.apache.commons.lang.ArrayUtils;
-import org.apache.commons.math3.ml.clustering.Cluster;
-import org.apache.commons.math3.ml.clustering.DBSCANClusterer;
 import org.apache.commons.math3.stat.descriptive.moment.Mean;
 import org.apache.commons.math3.stat.descriptive.moment.StandardDeviation;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.apache.solr.common.SolrDocument;
 import webapp.models.GeoNameWithFrequencyScore;
 
 public class LocationResolver {
-    private GeoParser parser;
+    final static Logger logger = LogManager.getLogger(LocationResolver.class);
+
+    private String indexDirectory;
+    private Gazetteer gazetteer;
+    private GeoParserPool parserPool;
+    private GeoParser dictionaryParser;
+    private ExecutorService chunkExecutor;
+    private final GeoGridClusterer clusterer = new GeoGridClusterer(
+            GeoGridClusterer.DistanceMeasure.valueOf(Tools.getProperties().getProperty("geoparser.clusterDistance", "degrees").trim().toUpperCase()));
+
+    private static final LocationExtractorType defaultExtractor =
+            LocationExtractorType.fromString(Tools.getProperty("geoparser.extractor"), LocationExtractorType.STANFORD);
+
+    //documents longer than this are split and geoparsed in parallel; 0 parses every document in one pass
+    private static final int chunkSize = Tools.getIntProperty("geoparser.chunkSize", 20000);
 
     public LocationResolver() {
         try {
-            parser = GeoParserFactory.getDefault(Tools.getProperty("geonamesIndex.location"),
-                    new StanfordExtractor("english.all.3class.caseless.distsim.crf.ser.gz", "english.all.3class.caseless.distsim.prop"),
-                    1, 1, false);
+            long instanceMemory = Tools.getLongProperty("geoparser.instanceMemoryMB", 512) * 1024 * 1024;
+            int poolSize = Tools.getIntProperty("geoparser.poolSize", GeoParserPool.getDefaultSize(instanceMemory));
+            indexDirectory = Tools.getProperty("geonamesIndex.location");
+            gazetteer = new LuceneGazetteer(new File(indexDirectory));
+            parserPool = new GeoParserPool(gazetteer, poolSize);
+            AtomicInteger threadNum = new AtomicInteger();
+            chunkExecutor = Executors.newFixedThreadPool(poolSize, r -> {
+                Thread thread = new Thread(r, "Geoparse-chunk-" + threadNum.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
         } catch (ClavinException e) {
-            parser = null;
-        } catch (IOException e) {
-            parser = null;
-        } catch (ClassNotFoundException e) {
-            parser = null;
+            logger.error(e.getMessage(), e);
+            parserPool = null;
         }
     }
 
+    public Map<String, Object> getPoolStatistics() {
+        return parserPool != null ? parserPool.getStatistics() : Collections.emptyMap();
+    }
+
     public List<SolrDocument> getLocationsFromDocument(String docText, String docId) {
+        return getLocationsFromDocument(docText, docId, defaultExtractor);
+    }
+
+    public List<SolrDocument> getLocationsFromDocument(String docText, String docId, LocationExtractorType extractor) {
         try {
             //Geoparse the document to extract a list of geolocations
-            List<ResolvedLocation> resolvedLocations = parser.parse(docText);
+            List<ResolvedLocation> resolvedLocations = parse(docText, extractor != null ? extractor : defaultExtractor);
 
             List<GeoNameWithFrequencyScore> geoNames = getValidGeoNames(resolvedLocations);
 
@@ -51,6 +83,10 @@ public class LocationResolver {
                 locDoc.addField("name", composeLocationName(geoName.getGeoName()));
                 locDoc.addField("latitude", geoName.getGeoName().getLatitude());
                 locDoc.addField("longitude", geoName.getGeoName().getLongitude());
+                //point and prefix tree copies of the coordinates for radius/bbox filtering and heatmap faceting
+                String point = geoName.getGeoName().getLatitude() + "," + geoName.getGeoName().getLongitude();
+                locDoc.addField("location", point);
+                locDoc.addField("locationGrid", point);
 
                 locDocs.add(locDoc);
             }
@@ -61,6 +97,86 @@ public class LocationResolver {
         }
     }
 
+    //Each location is resolved on its own (the parsers use a context window of 1) and the extractor works
+    //sentence by sentence, so parsing chunks split on paragraph or sentence boundaries finds the same
+    //locations as a single pass.  getValidGeoNames only counts occurrences, so the merge order is irrelevant.
+    private List<ResolvedLocation> parse(String docText, LocationExtractorType extractor) throws Exception {
+        if (chunkSize <= 0 || docText.length() <= chunkSize) {
+            return parseChunk(docText, extractor);
+        }
+
+        List<Future<List<ResolvedLocation>>> chunkLocations = new ArrayList<>();
+        for (String chunk : splitIntoChunks(docText, chunkSize)) {
+            chunkLocations.add(chunkExecutor.submit(() -> parseChunk(chunk, extractor)));
+        }
+        List<ResolvedLocation> resolvedLocations = new ArrayList<>();
+        try {
+            for (Future<List<ResolvedLocation>> locations : chunkLocations) {
+                resolvedLocations.addAll(locations.get());
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            chunkLocations.forEach(p -> p.cancel(true));
+        }
+        return resolvedLocations;
+    }
+
+    private List<ResolvedLocation> parseChunk(String text, LocationExtractorType extractor) throws Exception {
+        if (extractor == LocationExtractorType.DICTIONARY) {
+            return getDictionaryParser().parse(text);
+        }
+        return parserPool.parse(text);
+    }
+
+    //The dictionary extractor holds no per-call state, so a single parser serves every thread.  The place names
+    //are read from the gazetteer index the first time the dictionary mode is used.
+    private synchronized GeoParser getDictionaryParser() throws IOException {
+        if (dictionaryParser == null) {
+            dictionaryParser = new GeoParser(GazetteerDictionaryExtractor.fromIndex(indexDirectory), gazetteer, 1, 1, false);
+        }
+        return dictionaryParser;
+    }
+
+    //Splits text into chunks of at most maxLength characters, preferring to break after a blank line, then
+    //after the end of a sentence, then at any line break or space.
+    static List<String> splitIntoChunks(String text, int maxLength) {
+        List<String> chunks = new ArrayList<>();
+        int start = 0;
+        while (text.length() - start > maxLength) {
+            int limit = start + maxLength;
+            int minimum = start + maxLength / 2;
+            int end = lastBoundary(text, minimum, limit);
+            chunks.add(text.substring(start, end));
+            start = end;
+        }
+        chunks.add(text.substring(start));
+        return chunks;
+    }
+
+    private static int lastBoundary(String text, int minimum, int limit) {
+        int paragraph = text.lastIndexOf("\n\n", limit - 2);
+        if (paragraph >= minimum) {
+            return paragraph + 2;
+        }
+        paragraph = text.lastIndexOf("\n\r\n", limit - 3);
+        if (paragraph >= minimum) {
+            return paragraph + 3;
+        }
+        for (int i = limit - 1; i > minimum; i--) {
+            char c = text.charAt(i - 1);
+            if ((c == '.' || c == '?' || c == '!') && Character.isWhitespace(text.charAt(i))) {
+                return i;
+            }
+        }
+        int line = text.lastIndexOf('\n', limit - 1);
+        if (line >= minimum) {
+            return line + 1;
+        }
+        int space = text.lastIndexOf(' ', limit - 1);
+        return space >= minimum ? space + 1 : limit;
+    }
+
     private String composeLocationName(GeoName geoName) {
         GeoName parent = geoName.getParent();
         if (parent == null) {
@@ -116,14 +232,14 @@ public class LocationResolver {
         List<GeoNameWithFrequencyScore> topLevel = validForAdminDiv.stream().filter(p -> p.getAdminDiv() <= FeatureClass.P.ordinal()).collect(Collectors.toList());
         double clusterRadius = getClusterRadius(topLevel);
         int minClusterSize = getMinClusterSize(topLevel);
-        List<GeoNameWithFrequencyScore> validTopLevel = getValidGeoNamesByClustering(topLevel, clusterRadius, minClusterSize, 1, 2, 0);
+        List<GeoNameWithFrequencyScore> validTopLevel = getValidGeoNamesByClustering(topLevel, clusterRadius, minClusterSize, 1, 2);
         List<GeoNameWithFrequencyScore> lowerLevel = validForAdminDiv.stream().filter(p -> p.getAdminDiv() > FeatureClass.P.ordinal()).collect(Collectors.toList());
         clusterRadius = getClusterRadius(lowerLevel);
         minClusterSize = getMinClusterSize(lowerLevel);
         List<GeoNameWithFrequencyScore> validTopLevelWithLowerLevel = new ArrayList<>();
         validTopLevelWithLowerLevel.addAll(validTopLevel);
         validTopLevelWithLowerLevel.addAll(lowerLevel);
-        List<GeoNameWithFrequencyScore> validLowerLevel = getValidGeoNamesByClustering(validTopLevelWithLowerLevel, clusterRadius, minClusterSize, 0.25, 5, 0);
+        List<GeoNameWithFrequencyScore> validLowerLevel = getValidGeoNamesByClustering(validTopLevelWithLowerLevel, clusterRadius, minClusterSize, 0.25, 5);
         validLowerLevel = validLowerLevel.stream().filter(p -> p.getAdminDiv() > FeatureClass.P.ordinal()).collect(Collectors.toList());
 
         List<GeoNameWithFrequencyScore> validOverall = new ArrayList<>();
@@ -144,30 +260,26 @@ public class LocationResolver {
         return validOverall;
     }
 
-    private List<GeoNameWithFrequencyScore> getValidGeoNamesByClustering(List<GeoNameWithFrequencyScore> geoNames, double clusterRadius, int minClusterSize, double radiusIncrement, int maxIncrements, int incrementNum) {
+    private List<GeoNameWithFrequencyScore> getValidGeoNamesByClustering(List<GeoNameWithFrequencyScore> geoNames, double clusterRadius, int minClusterSize, double radiusIncrement, int maxIncrements) {
+        if (geoNames.size() <= 1) {
+            return new ArrayList<>(geoNames);
+        }
+        //A cluster is defined as a group of at least minClusterSize locations all lying within at most clusterRadius degree(s) of measure
+        //from each other.  If the points are too spread out to form clusters, the search radius grows by radiusIncrement (and the
+        //minimum cluster size halves) up to maxIncrements times.
+        double[] latitudes = new double[geoNames.size()];
+        double[] longitudes = new double[geoNames.size()];
+        for (int i = 0; i < geoNames.size(); i++) {
+            latitudes[i] = geoNames.get(i).getGeoName().getLatitude();
+            longitudes[i] = geoNames.get(i).getGeoName().getLongitude();
+        }
+        boolean[] clustered = clusterer.cluster(latitudes, longitudes, clusterRadius, minClusterSize, radiusIncrement, maxIncrements);
+
         List<GeoNameWithFrequencyScore> validOverall = new ArrayList<>();
-        if (geoNames.size() > 1) {
-            //A cluster is defined as a group of at least minClusterSize locations all lying within at most clusterRadius degree(s) of measure
-            //from each other.
-            DBSCANClusterer clusterer = new DBSCANClusterer(clusterRadius, minClusterSize);
-            List<Cluster<GeoNameWithFrequencyScore>> geoNameClusters = clusterer.cluster(geoNames);
-
-            if (geoNameClusters.size() > 0) {
-                //Now within each cluster filter again by statistics to get the final set of overall valid locations.
-                for (Cluster<GeoNameWithFrequencyScore> cluster : geoNameClusters) {
-                    validOverall.addAll(cluster.getPoints());
-                }
-            } else {
-                //The points must be too spread out to form clusters with at least minClusterSize points.
-                //Slightly increase the search radius and try again...
-                clusterRadius += radiusIncrement;
-                minClusterSize = minClusterSize / 2 < 1 ? 1 : minClusterSize / 2;
-                if (incrementNum <= maxIncrements) {
-                    return getValidGeoNamesByClustering(geoNames, clusterRadius, minClusterSize, radiusIncrement, maxIncrements, ++incrementNum);
-                }
+        for (int i = 0; i < clustered.length; i++) {
+            if (clustered[i]) {
+                validOverall.add(geoNames.get(i));
             }
-        } else {
-            validOverall.addAll(geoNames);
         }
         return validOverall;
     }
@@ -198,9 +310,10 @@ public class LocationResolver {
     private List<GeoNameWithFrequencyScore> filterByStatistics(List<GeoNameWithFrequencyScore> geoNames) {
         if (geoNames.size() > 2) {
             //prepare an array of frequencies for the set of geoname objects for use in calculating statistics
-            List<Integer> freqs = geoNames.stream().map(p -> p.getFreqScore()).collect(Collectors.toList());
-            int[] freqsArray = ArrayUtils.toPrimitive(freqs.toArray(new Integer[freqs.size()]));
-            double[] frequencies = Arrays.stream(freqsArray).asDoubleStream().toArray();
+            double[] frequencies = new double[geoNames.size()];
+            for (int i = 0; i < frequencies.length; i++) {
+                frequencies[i] = geoNames.get(i).getFreqScore();
+            }
             Arrays.sort(frequencies);
 
             //calculate index of dispersion for use in filtering the set of geonames to just those that fall within
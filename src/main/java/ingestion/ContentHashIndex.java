@@ -0,0 +1,99 @@
+package ingestion;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import common.Tools;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocumentList;
+import solrapi.SolrClient;
+
+import java.util.concurrent.CompletableFuture;
+
+//Maps the SHA-256 of an uploaded file to the id of the document that was indexed from it.  The persistent
+//index is the contentHash field in Solr.  In memory, each hash is claimed by the first job to upload it, so
+//identical files arriving together are processed once: later jobs wait for the claim to resolve to the id of
+//the indexed document.  Resolved claims are kept because the document may still be waiting in a batch or
+//the write buffer, where Solr cannot find it yet.
+public class ContentHashIndex {
+
+    //A hash being processed by the job of ownerDocId, resolved to the indexed document's id, or to null if the
+    //owner finished without indexing anything.
+    public static class Claim {
+        private final String ownerDocId;
+        private final IngestionBatch batch;
+        private final CompletableFuture<String> docId = new CompletableFuture<>();
+
+        private Claim(String ownerDocId, IngestionBatch batch) {
+            this.ownerDocId = ownerDocId;
+            this.batch = batch;
+        }
+
+        public CompletableFuture<String> getDocId() {
+            return docId;
+        }
+
+        //batch still holding the indexed document, if it was ingested in bulk
+        public IngestionBatch getBatch() {
+            return batch;
+        }
+    }
+
+    private final SolrClient solrClient;
+    private final Cache<String, Claim> claims = CacheBuilder.newBuilder()
+            .maximumSize(Tools.getIntProperty("ingestion.hashCache.size", 100000))
+            .build();
+
+    public ContentHashIndex(SolrClient solrClient) {
+        this.solrClient = solrClient;
+    }
+
+    //Claims the hash for the job's document.  Returns null if the job now owns the hash and has to process the
+    //content, or the claim of the job that got there first.
+    public Claim claim(String contentHash, IngestionJob job) {
+        Claim claim = new Claim(job.getDocId(), job.getBatch());
+        return claims.asMap().putIfAbsent(contentHash, claim);
+    }
+
+    //Resolves the owner's claim to the document the content was indexed as.
+    public void resolve(String contentHash, String ownerDocId, String indexedDocId) {
+        Claim claim = claims.getIfPresent(contentHash);
+        if (claim != null && claim.ownerDocId.equals(ownerDocId)) {
+            claim.docId.complete(indexedDocId);
+        }
+    }
+
+    //Drops the claim of an owner that finished without indexing the content, so a waiting job can take over.
+    public void release(String contentHash, String ownerDocId) {
+        Claim claim = claims.getIfPresent(contentHash);
+        if (claim != null && claim.ownerDocId.equals(ownerDocId) && !claim.docId.isDone()) {
+            claims.asMap().remove(contentHash, claim);
+            claim.docId.complete(null);
+        }
+    }
+
+    //Returns the id of a document indexed from content with this hash before the process started, or null.
+    public String findIndexed(String contentHash) throws SolrServerException {
+        SolrDocumentList docs = solrClient.QuerySolrDocuments("contentHash:" + contentHash, "id", 1, 0, null);
+        if (docs != null && !docs.isEmpty()) {
+            return docs.get(0).get("id").toString();
+        }
+        return null;
+    }
+
+    //Records content indexed outside the pipeline, such as a replacement file.
+    public void put(String contentHash, String docId) {
+        Claim claim = new Claim(docId, null);
+        claim.docId.complete(docId);
+        claims.put(contentHash, claim);
+    }
+
+    //Forgets the hash once Solr has confirmed that its document is gone.  Only the given claim is removed, so a
+    //claim taken since by another job is kept.
+    public void invalidate(String contentHash, Claim claim) {
+        claims.asMap().remove(contentHash, claim);
+    }
+
+    public void invalidate(String contentHash) {
+        claims.invalidate(contentHash);
+    }
+}
@@ -0,0 +1,312 @@
+package ingestion;
+
+import common.PDFTextExtractor;
+import common.TextQuality;
+import common.Tools;
+import geoparsing.LocationResolver;
+import nlp.DocumentCategorizer;
+import nlp.NamedEntityRecognizer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import solrapi.BufferedIndexWriter;
+import solrapi.SolrClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+public class DocumentProcessor {
+    final static Logger logger = LogManager.getLogger(DocumentProcessor.class);
+
+    private final SolrClient solrClient;
+    private final DocumentCategorizer categorizer;
+    private final NamedEntityRecognizer recognizer;
+    private final LocationResolver locationResolver;
+    private final PDFTextExtractor extractor = PDFTextExtractor.getInstance();
+    private final ContentHashIndex contentHashes;
+
+    private static final long duplicateWait = Tools.getLongProperty("ingestion.duplicateWait", 600000);
+    private static final int samplePages = Tools.getIntProperty("pdf.samplePages", 3);
+    private static final double minAsciiRatio = Tools.getDoubleProperty("pdf.minAsciiRatio", 0.8);
+    private static final double maxUnmappedRatio = Tools.getDoubleProperty("pdf.maxUnmappedRatio", 0.05);
+
+    public DocumentProcessor(SolrClient solrClient, DocumentCategorizer categorizer, NamedEntityRecognizer recognizer, LocationResolver locationResolver) {
+        this.solrClient = solrClient;
+        this.categorizer = categorizer;
+        this.recognizer = recognizer;
+        this.locationResolver = locationResolver;
+        this.contentHashes = new ContentHashIndex(solrClient);
+    }
+
+    public void addRejectionListener(BufferedIndexWriter.RejectionListener listener) {
+        solrClient.addRejectionListener(listener);
+    }
+
+    public IngestionBatch createBatch() {
+        return new IngestionBatch(solrClient, Tools.getIntProperty("ingestion.bulk.batchSize", 500));
+    }
+
+    public IngestionJob createJob(Map<String, Object> metadata, StagedUpload upload, String filename) {
+        return new IngestionJob(UUID.randomUUID().toString(), filename, upload, metadata);
+    }
+
+    //Brings an indexed document up to date with a replacement file on the calling thread.  An identical file
+    //only touches lastUpdated and a file whose extracted text is unchanged skips the NLP stages; both are sent as
+    //atomic updates of the changed fields.  Otherwise the document and its locations are replaced together.
+    public IngestionJob update(SolrDocument doc, StagedUpload upload, String filename) throws Exception {
+        String docId = doc.get("id").toString();
+        IngestionJob job = new IngestionJob(docId, filename, upload, null);
+        String timestamp = Tools.getFormattedDateTimeString(Instant.now());
+        Object previousHash = doc.get("contentHash");
+        if (upload.getContentHash().equals(previousHash)) {
+            updateFields(docId, Collections.singletonMap("lastUpdated", timestamp));
+            job.complete();
+            return job;
+        }
+
+        runStage(job, IngestionStage.EXTRACT);
+        if (job.isFinished()) {
+            return job;
+        }
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("filename", filename);
+        fields.put("contentHash", upload.getContentHash());
+        fields.put("lastUpdated", timestamp);
+        if (doc.containsKey("docStoreId")) {
+            fields.put("docStoreId", doc.get("docStoreId"));
+        }
+
+        String docText = job.getDocText();
+        if (docText != null && !docText.equals(doc.get("docText"))) {
+            for (IngestionStage stage = IngestionStage.CATEGORIZE; stage != IngestionStage.INDEX; stage = stage.next()) {
+                runStage(job, stage);
+            }
+            fields.forEach(doc::setField);
+            doc.setField("docText", docText);
+            doc.setField("category", job.getCategory());
+            doc.setField("annotated", job.getAnnotated());
+            //the document read back carries its version, which would make the replacement conditional
+            doc.removeFields("_version_");
+
+            List<SolrDocument> docs = new ArrayList<>(job.getLocationDocs());
+            docs.add(doc);
+            solrClient.replaceDocuments("docId:" + docId, docs);
+        } else {
+            updateFields(docId, fields);
+        }
+        if (previousHash != null) {
+            //the old content now has no document of its own
+            contentHashes.invalidate(previousHash.toString());
+        }
+        contentHashes.put(upload.getContentHash(), docId);
+        job.complete();
+        return job;
+    }
+
+    private void updateFields(String docId, Map<String, Object> fields) throws SolrServerException {
+        if (solrClient.updateFields(docId, fields, 1L) == null) {
+            throw new IllegalStateException("Document " + docId + " no longer exists");
+        }
+    }
+
+    public void runStage(IngestionJob job, IngestionStage stage) throws Exception {
+        job.beginStage(stage);
+        try {
+            switch (stage) {
+                case PREFLIGHT:
+                    preflight(job);
+                    break;
+                case EXTRACT:
+                    extract(job);
+                    break;
+                case CATEGORIZE:
+                    categorize(job);
+                    break;
+                case NER:
+                    recognize(job);
+                    break;
+                case GEOPARSE:
+                    geoparse(job);
+                    break;
+                case INDEX:
+                    index(job);
+                    break;
+            }
+        } finally {
+            job.endStage(stage);
+        }
+    }
+
+    //Skips documents whose content is already indexed, and rejects documents whose text is unreadable from a
+    //few sample pages, before paying for full extraction.
+    private void preflight(IngestionJob job) throws Exception {
+        if (deduplicate(job)) {
+            return;
+        }
+        File uploadedFile = job.getUploadedFile();
+        if (isPDF(uploadedFile)) {
+            TextQuality quality = new TextQuality();
+            try {
+                quality.add(extractor.samplePages(uploadedFile, samplePages, job::setPageCount));
+            } catch (IOException e) {
+                logger.warn("Unable to sample text from " + job.getFilename() + ": " + e.getMessage());
+                job.reject("Unable to extract readable text from " + job.getFilename());
+                return;
+            }
+            if (!isReadable(quality)) {
+                job.reject("Unable to extract readable text from " + job.getFilename());
+            }
+        }
+    }
+
+    //Reuses the extraction and NLP results of a document indexed from the same content.  Metadata sent with the
+    //duplicate upload is merged into the existing document.  A job uploading content that another job is still
+    //processing waits for that job, and takes over the content if it finishes without indexing it.
+    private boolean deduplicate(IngestionJob job) throws Exception {
+        String contentHash = job.getContentHash();
+        if (contentHash == null) {
+            return false;
+        }
+        while (true) {
+            ContentHashIndex.Claim claim = contentHashes.claim(contentHash, job);
+            if (claim == null) {
+                //this job owns the content, which may still have been indexed before the claims were kept
+                String existingId = contentHashes.findIndexed(contentHash);
+                if (existingId != null && mergeInto(existingId, job)) {
+                    contentHashes.resolve(contentHash, job.getDocId(), existingId);
+                    skipDuplicate(job, existingId);
+                    return true;
+                }
+                job.getDocument().addField("contentHash", contentHash);
+                return false;
+            }
+
+            String existingId = claim.getDocId().get(duplicateWait, TimeUnit.MILLISECONDS);
+            if (existingId == null) {
+                //the owner finished without indexing the content
+                continue;
+            }
+            if (claim.getBatch() != null) {
+                //a document still collected by its batch is not in Solr yet
+                claim.getBatch().flushPending();
+            }
+            if (mergeInto(existingId, job)) {
+                skipDuplicate(job, existingId);
+                return true;
+            }
+            //Solr confirms the earlier document has since been deleted
+            contentHashes.invalidate(contentHash, claim);
+        }
+    }
+
+    //Returns false if the document does not exist.
+    private boolean mergeInto(String existingId, IngestionJob job) throws SolrServerException {
+        if (!job.getMetadata().isEmpty()) {
+            //only the metadata is sent, as an atomic update that also fails if the document is gone
+            Map<String, Object> fields = new LinkedHashMap<>();
+            job.getMetadata().entrySet().stream()
+                    .filter(p -> !p.getKey().equals("id") && !p.getKey().equals("created") && !p.getKey().equals("_version_"))
+                    .forEach(p -> fields.put(p.getKey(), p.getValue()));
+            fields.put("lastUpdated", Tools.getFormattedDateTimeString(Instant.now()));
+            return solrClient.updateFields(existingId, fields, 1L) != null;
+        } else {
+            return solrClient.getById(existingId, "id") != null;
+        }
+    }
+
+    private void skipDuplicate(IngestionJob job, String existingId) {
+        job.duplicateOf(existingId);
+        logger.info("Skipping " + job.getFilename() + ", already indexed as document " + existingId);
+    }
+
+    //Called once a pipeline job has finished, whatever its outcome.
+    public void jobFinished(IngestionJob job) {
+        if (job.getContentHash() != null) {
+            contentHashes.release(job.getContentHash(), job.getDocId());
+        }
+    }
+
+    private void extract(IngestionJob job) throws IOException {
+        File uploadedFile = job.getUploadedFile();
+        if (isPDF(uploadedFile)) {
+            TextQuality quality = new TextQuality();
+            String docText;
+            try {
+                docText = extractor.extract(uploadedFile, job.getPageCount(), (endPage, pageCount, text) -> {
+                    quality.add(text);
+                    job.pagesExtracted(endPage, pageCount);
+                });
+            } catch (IOException e) {
+                logger.warn("Unable to extract text from " + job.getFilename() + ": " + e.getMessage());
+                docText = null;
+            }
+
+            //The pdf document may contain some arbitrary text encoding, in which case text extraction
+            // will be problematic.  Such documents are rejected rather than indexed with unreadable text.
+            if (docText == null || !isReadable(quality)) {
+                job.reject("Unable to extract readable text from " + job.getFilename());
+                return;
+            }
+            job.getDocument().addField("docText", docText);
+            job.setDocText(docText);
+        }
+    }
+
+    private boolean isPDF(File file) throws IOException {
+        String contentType = Files.probeContentType(file.toPath());
+        return contentType != null && contentType.compareTo("application/pdf") == 0;
+    }
+
+    private boolean isReadable(TextQuality quality) {
+        return quality.isReadable(minAsciiRatio, maxUnmappedRatio);
+    }
+
+    private void categorize(IngestionJob job) throws IOException {
+        if (job.getDocText() != null) {
+            job.setAnalysis(recognizer.analyze(job.getDocText()));
+            String category = Tools.removeUTF8BOM(categorizer.detectCategory(job.getAnalysis()));
+            job.setCategory(category);
+            job.getDocument().addField("category", category);
+        }
+    }
+
+    private void recognize(IngestionJob job) throws IOException {
+        if (job.getDocText() != null) {
+            Map<String, Double> entities = recognizer.detectNamedEntities(job.getAnalysis(), job.getCategory(), 0.5);
+            job.setEntities(entities);
+            String annotated = recognizer.annotate(job.getAnalysis(), entities);
+            job.setAnnotated(annotated);
+        }
+    }
+
+    private void geoparse(IngestionJob job) {
+        if (job.getDocText() != null) {
+            List<SolrDocument> locDocs = locationResolver.getLocationsFromDocument(job.getDocText(), job.getDocId(), job.getLocationExtractor());
+            if (locDocs != null) {
+                job.setLocationDocs(locDocs);
+            }
+        }
+    }
+
+    private void index(IngestionJob job) throws SolrServerException {
+        //NER and geoparsing output is absent when those stages timed out
+        if (job.getAnnotated() != null) {
+            job.getDocument().addField("annotated", job.getAnnotated());
+        }
+        List<SolrDocument> docs = new ArrayList<>(job.getLocationDocs());
+        docs.add(job.getDocument());
+        if (job.getBatch() != null) {
+            job.getBatch().collect(docs);
+        } else {
+            solrClient.indexDocuments(docs);
+        }
+        if (job.getContentHash() != null) {
+            contentHashes.resolve(job.getContentHash(), job.getDocId(), job.getDocId());
+        }
+    }
+}
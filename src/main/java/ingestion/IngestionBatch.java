@@ -0,0 +1,155 @@
+package ingestion;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import common.Tools;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import solrapi.SolrClient;
+
+import java.time.Instant;
+import java.util.*;
+
+//Collects the output of many ingestion jobs so they reach Solr in large batches with a single commit once
+//the last job of the batch has finished.
+public class IngestionBatch {
+    final static Logger logger = LogManager.getLogger(IngestionBatch.class);
+
+    private final String id;
+    private final String submitted;
+    private final long submittedMillis;
+    private final SolrClient solrClient;
+    private final int batchSize;
+    private final List<String> jobIds = new ArrayList<>();
+    private final List<SolrDocument> pending = new ArrayList<>();
+
+    private int expected;
+    private int completed;
+    private int rejected;
+    private int failed;
+    private int indexed;
+    private boolean sealed;
+    private long finishedMillis;
+    private String message;
+
+    public IngestionBatch(SolrClient solrClient, int batchSize) {
+        this.id = UUID.randomUUID().toString();
+        this.solrClient = solrClient;
+        this.batchSize = batchSize;
+        this.submittedMillis = System.currentTimeMillis();
+        this.submitted = Tools.getFormattedDateTimeString(Instant.ofEpochMilli(submittedMillis));
+    }
+
+    public synchronized void addJob(IngestionJob job) {
+        job.setBatch(this);
+        jobIds.add(job.getId());
+        expected++;
+    }
+
+    //No further jobs will be added; commits immediately if every job has already finished.
+    public synchronized void seal() {
+        sealed = true;
+        finishIfDone();
+    }
+
+    public synchronized void collect(List<SolrDocument> docs) throws SolrServerException {
+        pending.addAll(docs);
+        if (pending.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    public synchronized void jobFinished(IngestionJob job) {
+        switch (job.getStatus()) {
+            case COMPLETED:
+                completed++;
+                break;
+            case REJECTED:
+                rejected++;
+                break;
+            default:
+                failed++;
+                break;
+        }
+        finishIfDone();
+    }
+
+    private void finishIfDone() {
+        if (sealed && finishedMillis == 0 && completed + rejected + failed >= expected) {
+            try {
+                flush();
+                solrClient.commit();
+            } catch (SolrServerException e) {
+                logger.error(e.getMessage(), e);
+                message = e.getMessage();
+            }
+            finishedMillis = System.currentTimeMillis();
+            logger.info("Ingestion batch " + id + " finished: " + completed + " completed, " + rejected + " rejected, "
+                    + failed + " failed in " + getElapsed() + " ms");
+        }
+    }
+
+    //Sends the documents collected so far to the index without waiting for the batch to fill.
+    public synchronized void flushPending() throws SolrServerException {
+        flush();
+    }
+
+    private void flush() throws SolrServerException {
+        if (!pending.isEmpty()) {
+            solrClient.addDocuments(pending);
+            indexed += pending.size();
+            pending.clear();
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getSubmitted() {
+        return submitted;
+    }
+
+    public synchronized List<String> getJobIds() {
+        return new ArrayList<>(jobIds);
+    }
+
+    public synchronized int getExpected() {
+        return expected;
+    }
+
+    public synchronized int getCompleted() {
+        return completed;
+    }
+
+    public synchronized int getRejected() {
+        return rejected;
+    }
+
+    public synchronized int getFailed() {
+        return failed;
+    }
+
+    public synchronized int getIndexed() {
+        return indexed;
+    }
+
+    public synchronized String getMessage() {
+        return message;
+    }
+
+    public synchronized boolean isFinished() {
+        return finishedMillis > 0;
+    }
+
+    @JsonIgnore
+    public synchronized long getFinishedMillis() {
+        return finishedMillis;
+    }
+
+    public synchronized long getElapsed() {
+        long end = finishedMillis > 0 ? finishedMillis : System.currentTimeMillis();
+        return end - submittedMillis;
+    }
+}
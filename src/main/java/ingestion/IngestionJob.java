@@ -0,0 +1,324 @@
+package ingestion;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import common.Tools;
+import geoparsing.LocationExtractorType;
+import nlp.DocumentAnalysis;
+import org.apache.solr.common.SolrDocument;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+public class IngestionJob {
+    public enum Status {
+        QUEUED, RUNNING, COMPLETED, REJECTED, FAILED
+    }
+
+    private final String id;
+    private final String docId;
+    private final String filename;
+    private final String contentHash;
+    private final String submitted;
+    private final long submittedMillis;
+
+    private Status status = Status.QUEUED;
+    private IngestionStage stage;
+    private String message;
+    private String duplicateOf;
+    private long finishedMillis;
+    private final Map<IngestionStage, Long> enqueuedNanos = new EnumMap<>(IngestionStage.class);
+    private final Map<IngestionStage, Long> stageStartNanos = new EnumMap<>(IngestionStage.class);
+    private final Set<IngestionStage> degradedStages = EnumSet.noneOf(IngestionStage.class);
+    private int extractedPages;
+    private int pageCount;
+    private final Map<String, Long> queueTimings = new LinkedHashMap<>();
+    private final Map<String, Long> stageTimings = new LinkedHashMap<>();
+
+    //working state handed from one stage to the next
+    private final SolrDocument document;
+    private final Map<String, Object> metadata;
+    private File uploadedFile;
+    private String docText;
+    private DocumentAnalysis analysis;
+    private String category;
+    private Map<String, Double> entities;
+    private String annotated;
+    private List<SolrDocument> locationDocs = new ArrayList<>();
+    private IngestionBatch batch;
+    private LocationExtractorType locationExtractor;
+
+    public IngestionJob(String docId, String filename, StagedUpload upload, Map<String, Object> metadata) {
+        this.id = UUID.randomUUID().toString();
+        this.docId = docId;
+        this.filename = filename;
+        this.uploadedFile = upload.getFile();
+        this.contentHash = upload.getContentHash();
+        this.metadata = metadata != null ? metadata : Collections.emptyMap();
+        this.submittedMillis = System.currentTimeMillis();
+        this.submitted = Tools.getFormattedDateTimeString(Instant.ofEpochMilli(submittedMillis));
+
+        document = new SolrDocument();
+        document.addField("id", docId);
+        document.addField("filename", filename);
+        this.metadata.entrySet().stream().forEach(p -> document.addField(p.getKey(), p.getValue()));
+        document.addField("created", submitted);
+        document.addField("lastUpdated", submitted);
+    }
+
+    //Stages after extraction run concurrently, so timings are kept per stage and stage reports the stage that
+    //most recently changed state.
+    public synchronized void enqueue(IngestionStage stage) {
+        if (finishedMillis > 0) {
+            return;
+        }
+        enqueuedNanos.put(stage, System.nanoTime());
+        if (stageStartNanos.isEmpty()) {
+            this.stage = stage;
+            this.status = Status.QUEUED;
+        }
+    }
+
+    public synchronized void beginStage(IngestionStage stage) {
+        long now = System.nanoTime();
+        Long enqueued = enqueuedNanos.remove(stage);
+        if (enqueued != null) {
+            queueTimings.put(stage.getKey(), TimeUnit.NANOSECONDS.toMillis(now - enqueued));
+        }
+        this.stage = stage;
+        if (finishedMillis == 0) {
+            this.status = Status.RUNNING;
+        }
+        stageStartNanos.put(stage, now);
+    }
+
+    public synchronized void pagesExtracted(int endPage, int pageCount) {
+        this.extractedPages = endPage;
+        this.pageCount = pageCount;
+    }
+
+    public synchronized void endStage(IngestionStage stage) {
+        Long started = stageStartNanos.remove(stage);
+        if (started != null) {
+            stageTimings.put(stage.getKey(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        }
+    }
+
+    //Gives up on the output of an optional stage that ran past its timeout.  Anything the stage produces
+    //afterwards is discarded.
+    public synchronized void degrade(IngestionStage stage) {
+        degradedStages.add(stage);
+    }
+
+    public synchronized void complete() {
+        finish(Status.COMPLETED, null);
+    }
+
+    public synchronized void reject(String message) {
+        finish(Status.REJECTED, message);
+    }
+
+    //Completes the job without processing because the same content was already indexed as another document.
+    public synchronized void duplicateOf(String existingDocId) {
+        this.duplicateOf = existingDocId;
+        finish(Status.COMPLETED, "Duplicate of document " + existingDocId);
+    }
+
+    public synchronized void fail(Throwable e) {
+        finish(Status.FAILED, e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+    }
+
+    //Solr refused the job's output after the job may already have completed.
+    public synchronized void indexRejected(Throwable e) {
+        this.status = Status.FAILED;
+        this.message = "Rejected by the index: " + e.getMessage();
+        if (finishedMillis == 0) {
+            finishedMillis = System.currentTimeMillis();
+        }
+    }
+
+    private void finish(Status status, String message) {
+        if (finishedMillis > 0) {
+            //the first outcome of concurrent stages wins
+            return;
+        }
+        this.status = status;
+        this.message = message;
+        this.finishedMillis = System.currentTimeMillis();
+    }
+
+    @JsonIgnore
+    public synchronized boolean isFinished() {
+        return finishedMillis > 0;
+    }
+
+    @JsonIgnore
+    public synchronized long getFinishedMillis() {
+        return finishedMillis;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getDocId() {
+        return docId;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public synchronized String getDuplicateOf() {
+        return duplicateOf;
+    }
+
+    public String getSubmitted() {
+        return submitted;
+    }
+
+    public synchronized Status getStatus() {
+        return status;
+    }
+
+    public synchronized IngestionStage getStage() {
+        return stage;
+    }
+
+    public synchronized String getMessage() {
+        return message;
+    }
+
+    public synchronized long getElapsed() {
+        long end = finishedMillis > 0 ? finishedMillis : System.currentTimeMillis();
+        return end - submittedMillis;
+    }
+
+    public synchronized int getExtractedPages() {
+        return extractedPages;
+    }
+
+    public synchronized int getPageCount() {
+        return pageCount;
+    }
+
+    //Records the page count read while sampling the document, which extraction reuses.
+    public synchronized void setPageCount(int pageCount) {
+        this.pageCount = pageCount;
+    }
+
+    public synchronized Map<String, Long> getQueueTimings() {
+        return new LinkedHashMap<>(queueTimings);
+    }
+
+    public synchronized Map<String, Long> getStageTimings() {
+        return new LinkedHashMap<>(stageTimings);
+    }
+
+    public synchronized List<IngestionStage> getDegradedStages() {
+        return new ArrayList<>(degradedStages);
+    }
+
+    public String getBatchId() {
+        return batch != null ? batch.getId() : null;
+    }
+
+    //null when the deployment default is used
+    public LocationExtractorType getLocationExtractor() {
+        return locationExtractor;
+    }
+
+    public void setLocationExtractor(LocationExtractorType locationExtractor) {
+        this.locationExtractor = locationExtractor;
+    }
+
+    @JsonIgnore
+    public IngestionBatch getBatch() {
+        return batch;
+    }
+
+    public void setBatch(IngestionBatch batch) {
+        this.batch = batch;
+    }
+
+    @JsonIgnore
+    public SolrDocument getDocument() {
+        return document;
+    }
+
+    @JsonIgnore
+    public Map<String, Object> getMetadata() {
+        return metadata;
+    }
+
+    @JsonIgnore
+    public File getUploadedFile() {
+        return uploadedFile;
+    }
+
+    public void releaseUploadedFile() {
+        if (uploadedFile != null) {
+            uploadedFile.delete();
+            uploadedFile = null;
+        }
+    }
+
+    @JsonIgnore
+    public String getDocText() {
+        return docText;
+    }
+
+    public void setDocText(String docText) {
+        this.docText = docText;
+    }
+
+    @JsonIgnore
+    public DocumentAnalysis getAnalysis() {
+        return analysis;
+    }
+
+    public void setAnalysis(DocumentAnalysis analysis) {
+        this.analysis = analysis;
+    }
+
+    @JsonIgnore
+    public String getCategory() {
+        return category;
+    }
+
+    public void setCategory(String category) {
+        this.category = category;
+    }
+
+    @JsonIgnore
+    public Map<String, Double> getEntities() {
+        return entities;
+    }
+
+    public void setEntities(Map<String, Double> entities) {
+        this.entities = entities;
+    }
+
+    @JsonIgnore
+    public synchronized String getAnnotated() {
+        return degradedStages.contains(IngestionStage.NER) ? null : annotated;
+    }
+
+    public synchronized void setAnnotated(String annotated) {
+        this.annotated = annotated;
+    }
+
+    @JsonIgnore
+    public synchronized List<SolrDocument> getLocationDocs() {
+        return degradedStages.contains(IngestionStage.GEOPARSE) ? Collections.emptyList() : locationDocs;
+    }
+
+    public synchronized void setLocationDocs(List<SolrDocument> locationDocs) {
+        this.locationDocs = locationDocs;
+    }
+}
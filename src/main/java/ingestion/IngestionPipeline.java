@@ -0,0 +1,256 @@
+package ingestion;
+
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import common.Tools;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class IngestionPipeline {
+    final static Logger logger = LogManager.getLogger(IngestionPipeline.class);
+
+    private static final long jobRetention = Tools.getLongProperty("ingestion.jobRetention", 3600000);
+
+    private final DocumentProcessor processor;
+    private final Map<IngestionStage, ThreadPoolExecutor> stageExecutors = new EnumMap<>(IngestionStage.class);
+    private final Map<IngestionStage, Long> stageTimeouts = new EnumMap<>(IngestionStage.class);
+    private final ScheduledExecutorService timeoutTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "Ingest-timeouts");
+        thread.setDaemon(true);
+        return thread;
+    });
+    //Timed out stages are completed off the timer thread, since completing one runs its dependents' scheduling,
+    //which blocks while a stage queue is full.
+    private final ExecutorService timeoutHandler = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "Ingest-timeout-handler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, IngestionJob> jobs = new ConcurrentHashMap<>();
+    private final Map<String, IngestionBatch> batches = new ConcurrentHashMap<>();
+    private final ExecutorService batchFeeder = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Ingest-feeder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public IngestionPipeline(DocumentProcessor processor) {
+        this.processor = processor;
+        for (IngestionStage stage : IngestionStage.values()) {
+            stageExecutors.put(stage, createStageExecutor(stage));
+            stageTimeouts.put(stage, Tools.getLongProperty("ingestion." + stage.getKey() + ".timeout", 0));
+        }
+        processor.addRejectionListener(this::indexRejected);
+    }
+
+    //Documents are written behind the pipeline, so Solr can refuse one after its job has completed.  The job of
+    //the rejected document, or of the document a rejected location belongs to, is marked as failed.
+    private void indexRejected(SolrInputDocument doc, SolrException e) {
+        Object docId = doc.containsKey("docId") ? doc.getFieldValue("docId") : doc.getFieldValue("id");
+        if (docId != null) {
+            jobs.values().stream()
+                    .filter(p -> p.getDocId().equals(docId.toString()))
+                    .forEach(p -> p.indexRejected(e));
+        }
+    }
+
+    private static ThreadPoolExecutor createStageExecutor(IngestionStage stage) {
+        int threads = Tools.getIntProperty("ingestion." + stage.getKey() + ".threads", stage.getDefaultThreads());
+        int queueCapacity = Tools.getIntProperty("ingestion." + stage.getKey() + ".queueCapacity", 100);
+        AtomicInteger threadNum = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r, "Ingest-" + stage.getKey() + "-" + threadNum.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        //When a downstream stage is saturated the upstream worker waits for room in its queue rather than
+        //dropping the job, which keeps every stage bounded.
+        RejectedExecutionHandler blockingHandoff = (r, executor) -> {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Ingestion stage " + stage.getKey() + " has been shut down");
+            }
+            try {
+                executor.getQueue().put(r);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(e);
+            }
+        };
+
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), threadFactory, blockingHandoff);
+    }
+
+    //Copies an upload to a private staging file, hashing the content as it is copied.  The shared temporary
+    //file repository is wiped by the cleanup service, so queued jobs cannot keep their input there.  The stream is left open so that callers can stage consecutive entries of an archive.
+    public static StagedUpload stageUpload(InputStream stream, String filename) throws IOException {
+        Path stagedFile = Files.createTempFile("ingest-", "-" + new File(filename).getName());
+        HashingInputStream hashingStream = new HashingInputStream(Hashing.sha256(), stream);
+        Files.copy(hashingStream, stagedFile, StandardCopyOption.REPLACE_EXISTING);
+        return new StagedUpload(stagedFile.toFile(), hashingStream.hash().toString());
+    }
+
+    public IngestionJob submit(IngestionJob job) {
+        pruneFinishedJobs();
+        ThreadPoolExecutor entry = stageExecutors.get(IngestionStage.first());
+        if (entry.getQueue().remainingCapacity() == 0) {
+            throw new RejectedExecutionException("Ingestion queue is full");
+        }
+        jobs.put(job.getId(), job);
+        run(job);
+        return job;
+    }
+
+    //Jobs of a batch are fed to the pipeline from a background thread that waits for queue capacity, so a
+    //large back-load neither holds the request open nor gets rejected when the stages are saturated.
+    public IngestionBatch submitBatch(IngestionBatch batch, List<IngestionJob> batchJobs) {
+        pruneFinishedJobs();
+        batches.put(batch.getId(), batch);
+        for (IngestionJob job : batchJobs) {
+            batch.addJob(job);
+            jobs.put(job.getId(), job);
+        }
+        batchFeeder.execute(() -> {
+            for (IngestionJob job : batchJobs) {
+                run(job);
+            }
+            batch.seal();
+        });
+        return batch;
+    }
+
+    public IngestionBatch getBatch(String id) {
+        return batches.get(id);
+    }
+
+    public IngestionJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        stageExecutors.forEach((stage, executor) -> depths.put(stage.getKey(), executor.getQueue().size()));
+        return depths;
+    }
+
+    //Runs the stages of a job as a dependency graph on the stage executors.  Once the text is extracted,
+    //categorization and NER run alongside geoparsing, and indexing waits for both branches.
+    public CompletableFuture<IngestionJob> run(IngestionJob job) {
+        CompletableFuture<Void> preflight = schedule(job, IngestionStage.PREFLIGHT, CompletableFuture.completedFuture(null));
+        CompletableFuture<Void> extracted = schedule(job, IngestionStage.EXTRACT, preflight);
+        CompletableFuture<Void> recognized = schedule(job, IngestionStage.NER, schedule(job, IngestionStage.CATEGORIZE, extracted));
+        CompletableFuture<Void> geoparsed = schedule(job, IngestionStage.GEOPARSE, extracted);
+        CompletableFuture<Void> indexed = schedule(job, IngestionStage.INDEX, CompletableFuture.allOf(recognized, geoparsed));
+
+        return indexed.handle((result, e) -> {
+            if (e != null) {
+                job.fail(e);
+            }
+            if (!job.isFinished()) {
+                job.complete();
+            }
+            finished(job);
+            return job;
+        });
+    }
+
+    //Runs a stage once its dependency completes, unless the job has already finished.  Failures finish the
+    //job rather than the returned future, so the remaining stages see the job as finished and are skipped.
+    private CompletableFuture<Void> schedule(IngestionJob job, IngestionStage stage, CompletableFuture<?> dependency) {
+        CompletableFuture<Void> stageFuture = new CompletableFuture<>();
+        dependency.whenComplete((result, e) -> {
+            if (e != null) {
+                job.fail(e);
+            }
+            if (job.isFinished()) {
+                stageFuture.complete(null);
+                return;
+            }
+            job.enqueue(stage);
+            try {
+                stageExecutors.get(stage).execute(() -> runStage(job, stage, stageFuture));
+                startTimer(job, stage, stageFuture);
+            } catch (RejectedExecutionException ex) {
+                job.fail(ex);
+                stageFuture.complete(null);
+            }
+        });
+        return stageFuture;
+    }
+
+    private void runStage(IngestionJob job, IngestionStage stage, CompletableFuture<Void> stageFuture) {
+        try {
+            if (!stageFuture.isDone()) {
+                processor.runStage(job, stage);
+            }
+        } catch (Exception e) {
+            logger.error("Ingestion job " + job.getId() + " failed in stage " + stage.getKey(), e);
+            job.fail(e);
+        } finally {
+            if (stage == IngestionStage.EXTRACT) {
+                job.releaseUploadedFile();
+            }
+            stageFuture.complete(null);
+        }
+    }
+
+    //The timeout covers queue wait and run time.  The stage itself is left to finish in the background since
+    //neither OpenNLP nor CLAVIN can be interrupted safely; a degraded stage's output is ignored.
+    private void startTimer(IngestionJob job, IngestionStage stage, CompletableFuture<Void> stageFuture) {
+        long timeout = stageTimeouts.get(stage);
+        if (timeout <= 0) {
+            return;
+        }
+        ScheduledFuture<?> timer = timeoutTimer.schedule(() -> timeoutHandler.execute(() -> {
+            if (stageFuture.isDone()) {
+                return;
+            }
+            if (stage.isOptional()) {
+                logger.warn("Ingestion job " + job.getId() + " skipped stage " + stage.getKey() + " after " + timeout + " ms");
+                job.degrade(stage);
+            } else {
+                job.fail(new TimeoutException("Stage " + stage.getKey() + " timed out after " + timeout + " ms"));
+            }
+            stageFuture.complete(null);
+        }), timeout, TimeUnit.MILLISECONDS);
+        stageFuture.whenComplete((result, e) -> timer.cancel(false));
+    }
+
+    private void finished(IngestionJob job) {
+        job.releaseUploadedFile();
+        processor.jobFinished(job);
+        logger.info("Ingestion job " + job.getId() + " finished with status " + job.getStatus() + " in " + job.getElapsed() + " ms");
+        if (job.getBatch() != null) {
+            job.getBatch().jobFinished(job);
+        }
+    }
+
+    private void pruneFinishedJobs() {
+        long cutoff = System.currentTimeMillis() - jobRetention;
+        jobs.values().removeIf(p -> p.isFinished() && p.getFinishedMillis() < cutoff);
+        batches.values().removeIf(p -> p.isFinished() && p.getFinishedMillis() < cutoff);
+    }
+
+    public void shutdown() {
+        batchFeeder.shutdown();
+        timeoutTimer.shutdown();
+        timeoutHandler.shutdown();
+        stageExecutors.values().forEach(ThreadPoolExecutor::shutdown);
+    }
+}
@@ -0,0 +1,42 @@
+package ingestion;
+
+public enum IngestionStage {
+    PREFLIGHT("preflight", 2, false),
+    EXTRACT("extract", 2, false),
+    CATEGORIZE("categorize", 2, false),
+    NER("ner", 2, true),
+    GEOPARSE("geoparse", 1, true),
+    INDEX("index", 1, false);
+
+    private final String key;
+    private final int defaultThreads;
+    private final boolean optional;
+
+    IngestionStage(String key, int defaultThreads, boolean optional) {
+        this.key = key;
+        this.defaultThreads = defaultThreads;
+        this.optional = optional;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public int getDefaultThreads() {
+        return defaultThreads;
+    }
+
+    //An optional stage that times out is skipped and the document is indexed without its output.
+    public boolean isOptional() {
+        return optional;
+    }
+
+    public static IngestionStage first() {
+        return values()[0];
+    }
+
+    public IngestionStage next() {
+        int ordinal = ordinal() + 1;
+        return ordinal < values().length ? values()[ordinal] : null;
+    }
+}
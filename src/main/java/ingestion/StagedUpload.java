@@ -0,0 +1,22 @@
+package ingestion;
+
+import java.io.File;
+
+//An uploaded file copied to private storage, along with the SHA-256 of its content computed during the copy.
+public class StagedUpload {
+    private final File file;
+    private final String contentHash;
+
+    public StagedUpload(File file, String contentHash) {
+        this.file = file;
+        this.contentHash = contentHash;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+}
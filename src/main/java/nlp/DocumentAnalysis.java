@@ -0,0 +1,77 @@
+package nlp;
+
+import opennlp.tools.sentdetect.SentenceModel;
+import opennlp.tools.tokenize.TokenizerModel;
+import opennlp.tools.util.Span;
+
+//The NLP views of one document (cleaned text, sentences, tokens per sentence and the normalized tokens used
+//for categorization).  Each view is computed the first time it is requested and then shared by the
+//categorizer, the named entity recognizer and the annotator.
+public class DocumentAnalysis {
+
+    private final String docText;
+    private final SentenceModel sentModel;
+    private final TokenizerModel tokenizerModel;
+
+    private String cleanedText;
+    private Span[] sentenceSpans;
+    private String[] sentences;
+    private String[][] sentenceTokens;
+    private String[] docCatTokens;
+
+    public DocumentAnalysis(String docText, SentenceModel sentModel, TokenizerModel tokenizerModel) {
+        this.docText = docText;
+        this.sentModel = sentModel;
+        this.tokenizerModel = tokenizerModel;
+    }
+
+    public String getDocText() {
+        return docText;
+    }
+
+    public synchronized String getCleanedText() {
+        if (cleanedText == null) {
+            cleanedText = TextCleaner.clean(docText);
+        }
+        return cleanedText;
+    }
+
+    public synchronized Span[] getSentenceSpans() {
+        if (sentenceSpans == null) {
+            sentenceSpans = MEInstances.sentenceDetector(sentModel).sentPosDetect(getCleanedText());
+        }
+        return sentenceSpans;
+    }
+
+    public synchronized String[] getSentences() {
+        if (sentences == null) {
+            sentences = Span.spansToStrings(getSentenceSpans(), getCleanedText());
+        }
+        return sentences;
+    }
+
+    public synchronized String[][] getSentenceTokens() {
+        if (sentenceTokens == null) {
+            String[] sentences = getSentences();
+            sentenceTokens = new String[sentences.length][];
+            for (int i = 0; i < sentences.length; i++) {
+                sentenceTokens[i] = NLPTools.detectTokens(tokenizerModel, sentences[i]);
+            }
+        }
+        return sentenceTokens;
+    }
+
+    public synchronized String[] getDocCatTokens() {
+        if (docCatTokens == null) {
+            docCatTokens = getDocCatTokens(tokenizerModel, docText);
+        }
+        return docCatTokens;
+    }
+
+    public static String[] getDocCatTokens(TokenizerModel tokenizerModel, String document) {
+        String docCatStr = document.replace("\r", " ").replace("\n", " ");
+        String normalized = NLPTools.normalizeText(docCatStr);
+
+        return NLPTools.detectTokens(tokenizerModel, normalized);
+    }
+}
@@ -10,7 +10,6 @@ import solrapi.SolrClient;
 import solrapi.model.IndexedDocument;
 import opennlp.tools.doccat.DoccatModel;
 import opennlp.tools.doccat.DocumentCategorizerME;
-import opennlp.tools.stemmer.PorterStemmer;
 import opennlp.tools.tokenize.TokenizerModel;
 import org.springframework.core.io.ClassPathResource;
 
@@ -19,38 +18,27 @@ public class DocumentCategorizer {
     final static Logger logger = LogManager.getLogger(DocumentCategorizer.class);
 
     private DoccatModel model;
-    private DocumentCategorizerME categorizer;
-    private PorterStemmer stemmer;
     private TokenizerModel tokenizerModel;
 
     public DocumentCategorizer() {
         model = NLPTools.getModel(DoccatModel.class, new ClassPathResource(Tools.getProperty("nlp.doccatModel")));
-        categorizer = new DocumentCategorizerME(model);
-        stemmer = new PorterStemmer();
         tokenizerModel = NLPTools.getModel(TokenizerModel.class, new ClassPathResource(Tools.getProperty("nlp.tokenizerModel")));
     }
 
     public String detectCategory(String document) throws IOException {
-        String[] docCatTokens = GetDocCatTokens(document);
+        return detectCategory(DocumentAnalysis.getDocCatTokens(tokenizerModel, document));
+    }
+
+    public String detectCategory(DocumentAnalysis analysis) throws IOException {
+        return detectCategory(analysis.getDocCatTokens());
+    }
 
+    private String detectCategory(String[] docCatTokens) {
         //Categorize
+        DocumentCategorizerME categorizer = MEInstances.categorizer(model);
         double[] outcomes = categorizer.categorize(docCatTokens);
         String category = categorizer.getBestCategory(outcomes);
 
         return category;
     }
-
-    private String[] GetDocCatTokens(String document) {
-        String normalized = getNormalizedDocCatString(document);
-        String[] tokens = NLPTools.detectTokens(tokenizerModel, normalized);
-
-        return tokens;
-    }
-
-    private String getNormalizedDocCatString(String document) {
-        String docCatStr = document.replace("\r", " ").replace("\n", " ");
-
-        return NLPTools.normalizeText(stemmer, docCatStr);
-    }
 }
-
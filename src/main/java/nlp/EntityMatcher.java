@@ -0,0 +1,84 @@
+package nlp;
+
+import java.util.*;
+
+//Aho-Corasick automaton over a set of entity strings.  Finds every occurrence of every entity in a single
+//pass over the text, independent of the number of entities.
+public class EntityMatcher {
+
+    private final List<Map<Character, Integer>> transitions = new ArrayList<>();
+    private final int[] failure;
+    private final int[] matchLength; //length of the longest entity ending at a state, 0 if none
+    private final int[] outputLink;  //nearest state on the failure chain that ends an entity, 0 if none
+
+    public EntityMatcher(Collection<String> entities) {
+        transitions.add(new HashMap<>());
+        List<Integer> lengths = new ArrayList<>();
+        lengths.add(0);
+        for (String entity : entities) {
+            if (entity == null || entity.isEmpty()) {
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < entity.length(); i++) {
+                Integer next = transitions.get(state).get(entity.charAt(i));
+                if (next == null) {
+                    next = transitions.size();
+                    transitions.add(new HashMap<>());
+                    lengths.add(0);
+                    transitions.get(state).put(entity.charAt(i), next);
+                }
+                state = next;
+            }
+            lengths.set(state, entity.length());
+        }
+
+        int numStates = transitions.size();
+        failure = new int[numStates];
+        matchLength = new int[numStates];
+        outputLink = new int[numStates];
+        for (int i = 0; i < numStates; i++) {
+            matchLength[i] = lengths.get(i);
+        }
+
+        //breadth first so that every failure target is resolved before the states that depend on it
+        Deque<Integer> queue = new ArrayDeque<>(transitions.get(0).values());
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (Map.Entry<Character, Integer> transition : transitions.get(state).entrySet()) {
+                int child = transition.getValue();
+                int fallback = failure[state];
+                while (fallback > 0 && !transitions.get(fallback).containsKey(transition.getKey())) {
+                    fallback = failure[fallback];
+                }
+                Integer target = transitions.get(fallback).get(transition.getKey());
+                failure[child] = target != null && target != child ? target : 0;
+                outputLink[child] = matchLength[failure[child]] > 0 ? failure[child] : outputLink[failure[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    //Returns, for each position of the text, the end offset of the longest entity starting there (0 if none).
+    public int[] longestMatchEnds(CharSequence text) {
+        int[] matchEnds = new int[text.length()];
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            while (state > 0 && !transitions.get(state).containsKey(c)) {
+                state = failure[state];
+            }
+            Integer next = transitions.get(state).get(c);
+            state = next != null ? next : 0;
+
+            int end = i + 1;
+            for (int match = matchLength[state] > 0 ? state : outputLink[state]; match > 0; match = outputLink[match]) {
+                int start = end - matchLength[match];
+                if (end > matchEnds[start]) {
+                    matchEnds[start] = end;
+                }
+            }
+        }
+        return matchEnds;
+    }
+}
@@ -0,0 +1,55 @@
+package nlp;
+
+import opennlp.tools.doccat.DoccatModel;
+import opennlp.tools.doccat.DocumentCategorizerME;
+import opennlp.tools.namefind.NameFinderME;
+import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.sentdetect.SentenceDetectorME;
+import opennlp.tools.sentdetect.SentenceModel;
+import opennlp.tools.tokenize.TokenizerME;
+import opennlp.tools.tokenize.TokenizerModel;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+//The OpenNLP ME classes are cheap to share within a thread but not safe to share across threads, so each
+//thread keeps one instance per model.  Models are immutable and shared by every thread.
+public class MEInstances {
+
+    //a thread only ever sees a handful of models; the cap lets instances for retrained models be released
+    private static final int MAX_INSTANCES_PER_THREAD = 16;
+
+    private static final ThreadLocal<Map<Object, Object>> instances = ThreadLocal.withInitial(IdentityHashMap::new);
+
+    public static SentenceDetectorME sentenceDetector(SentenceModel model) {
+        return get(model, SentenceDetectorME::new);
+    }
+
+    public static TokenizerME tokenizer(TokenizerModel model) {
+        return get(model, TokenizerME::new);
+    }
+
+    //Callers must clear the adaptive data at each document boundary.
+    public static NameFinderME nameFinder(TokenNameFinderModel model) {
+        return get(model, NameFinderME::new);
+    }
+
+    public static DocumentCategorizerME categorizer(DoccatModel model) {
+        return get(model, DocumentCategorizerME::new);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <M, T> T get(M model, Function<M, T> factory) {
+        Map<Object, Object> threadInstances = instances.get();
+        Object instance = threadInstances.get(model);
+        if (instance == null) {
+            if (threadInstances.size() >= MAX_INSTANCES_PER_THREAD) {
+                threadInstances.clear();
+            }
+            instance = factory.apply(model);
+            threadInstances.put(model, instance);
+        }
+        return (T) instance;
+    }
+}
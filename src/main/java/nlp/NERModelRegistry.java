@@ -0,0 +1,49 @@
+package nlp;
+
+import opennlp.tools.namefind.TokenNameFinderModel;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//Holds the NER model for each category in memory so the model file is only deserialized once.  Retrained
+//models are swapped in by replacing the map entry; callers that already hold the previous model keep
+//using it until they finish.
+public class NERModelRegistry {
+
+    final static Logger logger = LogManager.getLogger(NERModelRegistry.class);
+
+    private final Map<String, String> modelFiles;
+    private final Map<String, TokenNameFinderModel> models = new ConcurrentHashMap<>();
+    private final Map<String, Object> loadLocks = new ConcurrentHashMap<>();
+
+    public NERModelRegistry(Map<String, String> modelFiles) {
+        this.modelFiles = modelFiles;
+    }
+
+    public TokenNameFinderModel getModel(String category) throws IOException {
+        TokenNameFinderModel model = models.get(category);
+        if (model == null) {
+            //only one thread per category reads the model file; the rest wait for its result
+            synchronized (loadLocks.computeIfAbsent(category, p -> new Object())) {
+                model = models.get(category);
+                if (model == null) {
+                    model = NLPTools.getModel(TokenNameFinderModel.class, modelFiles.get(category));
+                    if (model == null) {
+                        throw new IOException("Unable to load NER model for category " + category);
+                    }
+                    models.put(category, model);
+                    logger.info("Loaded NER model for category " + category);
+                }
+            }
+        }
+        return model;
+    }
+
+    public void swap(String category, TokenNameFinderModel model) {
+        models.put(category, model);
+        logger.info("Swapped in retrained NER model for category " + category);
+    }
+}
@@ -1,15 +1,18 @@
 package nlp;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import common.Tools;
 import opennlp.tools.ml.EventTrainer;
 import opennlp.tools.sentdetect.SentenceDetectorME;
 import opennlp.tools.sentdetect.SentenceModel;
+import opennlp.tools.stemmer.PorterStemmer;
 import opennlp.tools.stemmer.Stemmer;
 import opennlp.tools.tokenize.TokenizerME;
 import opennlp.tools.tokenize.TokenizerModel;
 import opennlp.tools.util.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.apache.lucene.analysis.core.StopFilter;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
@@ -19,11 +22,25 @@ import org.springframework.core.io.ClassPathResource;
 import java.io.*;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.CharBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 public class NLPTools {
     final static Logger logger = LogManager.getLogger(NLPTools.class);
 
+    //StandardAnalyzer already removes English stop words; it is safe to share because token streams are
+    //reused per thread
+    private static final StandardAnalyzer analyzer = new StandardAnalyzer(Version.LUCENE_4_9);
+
+    //PorterStemmer keeps per-word state, so each thread gets its own
+    private static final ThreadLocal<PorterStemmer> stemmers = ThreadLocal.withInitial(PorterStemmer::new);
+
+    //most of the vocabulary repeats across documents, so Porter stems are cached by term
+    private static final Cache<CharBuffer, String> stemCache = CacheBuilder.newBuilder()
+            .maximumSize(Tools.getIntProperty("nlp.stemCache.size", 100000))
+            .build();
+
     public static TrainingParameters getTrainingParameters(int iterations, int cutoff) {
         TrainingParameters mlParams = new TrainingParameters();
         mlParams.put(TrainingParameters.ALGORITHM_PARAM, "MAXENT");
@@ -136,7 +153,7 @@ public class NLPTools {
     }
 
     public static String[] detectSentences(SentenceModel model, String input) {
-        SentenceDetectorME sentenceDetector = new SentenceDetectorME(model);
+        SentenceDetectorME sentenceDetector = MEInstances.sentenceDetector(model);
 
         String[] sentences = sentenceDetector.sentDetect(input);
 
@@ -144,42 +161,52 @@ public class NLPTools {
     }
 
     public static String[] detectTokens(TokenizerModel model, String input) {
-        TokenizerME tokenDetector = new TokenizerME(model);
+        TokenizerME tokenDetector = MEInstances.tokenizer(model);
 
         String[] tokens = tokenDetector.tokenize(input);
 
         return tokens;
     }
 
+    public static String normalizeText(String text) {
+        return normalizeText(text, stemmers.get(), stemCache);
+    }
+
     public static String normalizeText(Stemmer stemmer, String text) {
-        try {
-            //produce a token stream for use by the stopword filters
-            StandardAnalyzer analyzer = new StandardAnalyzer(Version.LUCENE_4_9);
-            TokenStream stream = analyzer.tokenStream("", text);
+        return normalizeText(text, stemmer, null);
+    }
 
-            //get a handle to the filter that will remove stop words
-            StopFilter stopFilter = new StopFilter(Version.LUCENE_4_9, stream, analyzer.getStopwordSet());
+    private static String normalizeText(String text, Stemmer stemmer, Cache<CharBuffer, String> cache) {
+        //the analyzer hands each thread its own reusable tokenizer and stop filter chain
+        try (TokenStream stream = analyzer.tokenStream("", text)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
             stream.reset();
-            StringBuilder str = new StringBuilder();
-            //iterate through each token observed by the stop filter
-            while(stopFilter.incrementToken()) {
-                //get the next token that passes the filter
-                CharTermAttribute attr = stopFilter.getAttribute(CharTermAttribute.class);
+            StringBuilder str = new StringBuilder(text.length());
+            //iterate through each token that passes the stop filter
+            while (stream.incrementToken()) {
                 //lemmatize the token and append it to the final output
-                str.append(stemmer.stem(attr.toString()) + " ");
+                str.append(stem(stemmer, cache, term)).append(' ');
             }
-            analyzer.close();
-            stopFilter.end();
-            stopFilter.close();
             stream.end();
-            stream.close();
             return str.toString();
         } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            logger.error(e.getMessage(), e);
         }
 
         return null;
     }
 
+    private static CharSequence stem(Stemmer stemmer, Cache<CharBuffer, String> cache, CharTermAttribute term) {
+        if (cache == null) {
+            return stemmer.stem(term);
+        }
+        //look up by a view of the term buffer so cache hits allocate nothing
+        String stem = cache.getIfPresent(CharBuffer.wrap(term.buffer(), 0, term.length()));
+        if (stem == null) {
+            stem = stemmer.stem(term).toString();
+            cache.put(CharBuffer.wrap(Arrays.copyOf(term.buffer(), term.length())), stem);
+        }
+        return stem;
+    }
+
 }
@@ -17,9 +17,10 @@ import org.springframework.core.io.ClassPathResource;
 import solrapi.SolrClient;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 public class NamedEntityRecognizer {
 
@@ -53,26 +54,59 @@ public class NamedEntityRecognizer {
 
                 client.indexDocument(doc);
             }
+            client.flush();
         } catch (SolrServerException e) {
             e.printStackTrace();
         }
     }
 
     public String autoAnnotate(String document, String category, double threshold) {
-        String[] sentences = detectSentences(document);
-        document = String.join("\r\n", sentences);
-        Map<String, Double> entities = detectNamedEntities(sentences, category, threshold);
+        return autoAnnotate(analyze(document), category, threshold);
+    }
+
+    public String autoAnnotate(DocumentAnalysis analysis, String category, double threshold) {
+        Map<String, Double> entities = detectNamedEntities(analysis, category, threshold);
+        return annotate(analysis, entities);
+    }
+
+    private static final String START_TAG = " <START:FAC> ";
+    private static final String END_TAG = " <END> ";
+
+    public String annotate(DocumentAnalysis analysis, Map<String, Double> entities) {
+        String document = String.join("\r\n", analysis.getSentences());
         if (!entities.isEmpty()) {
-            entities = entities.entrySet().stream().sorted(Collections.reverseOrder(Map.Entry.comparingByKey()))
-                    .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (e1, e2) -> e1, LinkedHashMap::new));
-            for (String tag : entities.keySet()) {
-                document = document.replace(tag, " <START:FAC> " + tag + " <END> ");
+            //Tag every entity occurrence in one pass.  Where entities overlap, the leftmost and then the longest
+            //match wins so that tags are never nested inside each other.
+            int[] matchEnds = new EntityMatcher(entities.keySet()).longestMatchEnds(document);
+            StringBuilder annotated = new StringBuilder(document.length() + entities.size() * 32);
+            int i = 0;
+            while (i < document.length()) {
+                int end = matchEnds[i];
+                if (end > i) {
+                    appendCollapsingSpaces(annotated, START_TAG, 0, START_TAG.length());
+                    appendCollapsingSpaces(annotated, document, i, end);
+                    appendCollapsingSpaces(annotated, END_TAG, 0, END_TAG.length());
+                    i = end;
+                } else {
+                    appendCollapsingSpaces(annotated, document, i, i + 1);
+                    i++;
+                }
             }
-            document = document.replaceAll(" {2,}", " "); //ensure there are no multi-spaces that could disrupt model training
+            document = annotated.toString();
         }
         return document;
     }
 
+    //ensure there are no multi-spaces that could disrupt model training
+    private static void appendCollapsingSpaces(StringBuilder builder, CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c != ' ' || builder.length() == 0 || builder.charAt(builder.length() - 1) != ' ') {
+                builder.append(c);
+            }
+        }
+    }
+
     private static final Map<String, String> models;
     static
     {
@@ -103,28 +137,35 @@ public class NamedEntityRecognizer {
     private SentenceModel sentModel;
     private TokenizerModel tokenizerModel;
     private SolrClient client;
+    private NERModelRegistry modelRegistry;
 
     public NamedEntityRecognizer(SolrClient client) {
         sentModel = NLPTools.getModel(SentenceModel.class, new ClassPathResource(Tools.getProperty("nlp.sentenceDetectorModel")));
         tokenizerModel = NLPTools.getModel(TokenizerModel.class, new ClassPathResource(Tools.getProperty("nlp.tokenizerModel")));
         this.client = client;
+        modelRegistry = new NERModelRegistry(models);
+    }
+
+    public DocumentAnalysis analyze(String document) {
+        return new DocumentAnalysis(document, sentModel, tokenizerModel);
     }
 
     public Map<String, Double> detectNamedEntities(String document, String category, double threshold) throws IOException {
-        String[] sentences = detectSentences(document);
-        return detectNamedEntities(sentences, category, threshold);
+        return detectNamedEntities(analyze(document), category, threshold);
     }
 
-    public Map<String, Double> detectNamedEntities(String[] sentences, String category, double threshold, int... numTries) {
+    public Map<String, Double> detectNamedEntities(DocumentAnalysis analysis, String category, double threshold) {
+        return detectNamedEntities(analysis.getSentenceTokens(), category, threshold);
+    }
+
+    private Map<String, Double> detectNamedEntities(String[][] sentenceTokens, String category, double threshold, int... numTries) {
         Map<String, Double> namedEntities = new HashMap<>();
         try {
-            TokenNameFinderModel model = NLPTools.getModel(TokenNameFinderModel.class, models.get(category));
-            NameFinderME nameFinder = new NameFinderME(model);
+            TokenNameFinderModel model = modelRegistry.getModel(category);
+            NameFinderME nameFinder = MEInstances.nameFinder(model);
+            nameFinder.clearAdaptiveData();
 
-            List<String> tokenized = new ArrayList<>();
-            for (String sentence : sentences) {
-                String[] tokens = NLPTools.detectTokens(tokenizerModel, sentence);
-                tokenized.add(String.join(" ", tokens));
+            for (String[] tokens : sentenceTokens) {
                 Span[] nameSpans = nameFinder.find(tokens);
                 double[] probs = nameFinder.probs(nameSpans);
                 for (int i = 0; i < nameSpans.length; i++) {
@@ -140,18 +181,11 @@ public class NamedEntityRecognizer {
                 }
             }
 
-//        try {
-//            FileUtils.writeLines(new File("data/sentences.txt"), Charset.forName("Cp1252").displayName(), Arrays.asList(sentences));
-//            FileUtils.writeLines(new File("data/tokenized.txt"), Charset.forName("Cp1252").displayName(), tokenized);
-//        } catch (IOException e) {
-//            e.printStackTrace();
-//        }
-
             return namedEntities;
         } catch (IOException e) {
             if(numTries.length == 0) {
                 trainNERModel(category); //model may not yet exist, but maybe there is data to train it...
-                return detectNamedEntities(sentences, category, threshold, 1);
+                return detectNamedEntities(sentenceTokens, category, threshold, 1);
             } else {
                 //no model training data available...
                 logger.error(e.getMessage(), e);
@@ -161,26 +195,15 @@ public class NamedEntityRecognizer {
     }
 
     public String[] detectSentences(String document) {
-        document = document.replace("\r\n", "");
-        document = document.replace("(", " ");
-        document = document.replace(")", " ");
-        document = document.replaceAll("\\P{Print}", " ");
-        //document = document.replaceAll("(\\w+\\W+)?\\d+(\\w+\\W+)?", ""); //removes all the numbers
-        //document = document.replaceAll("[$-,/:-?{-~!\"^_`\\[\\]+]", ""); //removes most special characters
-        document = document.replaceAll("[%-*/:-?{-~!\"^_`\\[\\]+]", "");
-        //document = document.replaceAll("-", " ");
-        document = document.replaceAll(" +\\.", ".");
-        document = document.replaceAll("\\.{2,}", ". ");
-        document = document.replaceAll(" {2,}", " ");
-        String[] sentences = NLPTools.detectSentences(sentModel, document);
-
-        return sentences;
+        return analyze(document).getSentences();
     }
 
     public void trainNERModel(String category) {
         try {
             String trainingFile = trainingFiles.get(category);
 
+            //training data is read back out of the index, so annotations saved since the last commit must be visible
+            client.commit();
             client.writeTrainingDataToFile(trainingFile, dataGetters.get(category), client::formatForNERModelTraining);
             ObjectStream<String> lineStream = NLPTools.getLineStreamFromMarkableFile(trainingFile);
 
@@ -195,11 +218,17 @@ public class NamedEntityRecognizer {
                         TokenNameFinderFactory.create(null, null, Collections.emptyMap(), new BioCodec()));
             }
 
-            try (OutputStream modelOut = new BufferedOutputStream(new FileOutputStream(models.get(category)))) {
+            //write to a temporary file first so a concurrent load never reads a partially written model
+            File modelFile = new File(models.get(category));
+            File tempModelFile = new File(modelFile.getPath() + ".tmp");
+            try (OutputStream modelOut = new BufferedOutputStream(new FileOutputStream(tempModelFile))) {
                 model.serialize(modelOut);
             }
+            Files.move(tempModelFile.toPath(), modelFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
 
-        } catch (IOException e) {
+            modelRegistry.swap(category, model);
+
+        } catch (IOException | SolrServerException e) {
             logger.error(e.getMessage(), e);
         }
     }
@@ -0,0 +1,90 @@
+package nlp;
+
+//Single pass replacement for the chain of replace/replaceAll calls that used to prepare text for sentence
+//detection.  Produces exactly the output of that chain (kept as the reference in TextCleanerTest) without
+//compiling patterns or copying the document once per rule.
+public class TextCleaner {
+
+    //characters matched by [%-*/:-?{-~!"^_`\[\]+], which are dropped from the text
+    private static final boolean[] REMOVED = new boolean[128];
+    static
+    {
+        for (char c : "%&'()*/:;<=>?{|}~!\"^_`[]+".toCharArray()) {
+            REMOVED[c] = true;
+        }
+    }
+
+    //buffers larger than this are not kept between calls
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+    private static final ThreadLocal<StringBuilder> buffers = ThreadLocal.withInitial(() -> new StringBuilder(8192));
+
+    public static String clean(String document) {
+        StringBuilder buffer = buffers.get();
+        buffer.setLength(0);
+        clean(document, buffer);
+        String cleaned = buffer.toString();
+        if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+            buffers.remove();
+        }
+        return cleaned;
+    }
+
+    public static void clean(CharSequence document, StringBuilder out) {
+        out.ensureCapacity(out.length() + document.length());
+        int length = document.length();
+        int pendingSpaces = 0;
+        int pendingDots = 0;
+        for (int i = 0; i < length; i++) {
+            char c = document.charAt(i);
+            if (c == '\r' && i + 1 < length && document.charAt(i + 1) == '\n') {
+                //line breaks are joined without a separator
+                i++;
+                continue;
+            }
+            if (c == '(' || c == ')') {
+                c = ' ';
+            } else if (c < 0x20 || c > 0x7E) {
+                //anything outside printable ASCII becomes a single space per code point
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(document.charAt(i + 1))) {
+                    i++;
+                }
+                c = ' ';
+            } else if (REMOVED[c]) {
+                continue;
+            }
+
+            if (c == ' ') {
+                pendingSpaces++;
+            } else if (c == '.') {
+                //spaces before a period are dropped, so the period may continue a run of periods
+                pendingSpaces = 0;
+                pendingDots++;
+            } else {
+                flush(out, pendingDots, pendingSpaces);
+                pendingDots = 0;
+                pendingSpaces = 0;
+                append(out, c);
+            }
+        }
+        flush(out, pendingDots, pendingSpaces);
+    }
+
+    private static void flush(StringBuilder out, int pendingDots, int pendingSpaces) {
+        if (pendingDots == 1) {
+            append(out, '.');
+        } else if (pendingDots > 1) {
+            append(out, '.');
+            append(out, ' ');
+        }
+        if (pendingSpaces > 0) {
+            append(out, ' ');
+        }
+    }
+
+    private static void append(StringBuilder out, char c) {
+        if (c != ' ' || out.length() == 0 || out.charAt(out.length() - 1) != ' ') {
+            out.append(c);
+        }
+    }
+}
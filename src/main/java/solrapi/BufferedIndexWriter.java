@@ -0,0 +1,264 @@
+package solrapi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.Tools;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.UpdateParams;
+import org.apache.solr.common.util.NamedList;
+
+//Write-behind buffer for index updates.  Documents are sent to Solr in batches once the buffer reaches
+//its size limit or the flush interval elapses, and rely on commitWithin for visibility instead of a hard
+//commit per write.  Callers that need to read their own writes call commit() to flush and soft commit.
+public class BufferedIndexWriter {
+
+	final static Logger logger = LogManager.getLogger(BufferedIndexWriter.class);
+
+	private final HttpSolrClient client;
+	private final String collection;
+	private final int maxBufferSize;
+	private final int commitWithin;
+
+	private final Object bufferLock = new Object();
+	private final Object flushLock = new Object();
+	private List<SolrInputDocument> buffer = new ArrayList<>();
+
+	private final AtomicLong flushCount = new AtomicLong();
+	private final AtomicLong flushedDocs = new AtomicLong();
+	private final AtomicLong totalFlushMillis = new AtomicLong();
+	private final AtomicLong lastFlushMillis = new AtomicLong();
+	private final AtomicLong maxFlushMillis = new AtomicLong();
+	private final AtomicLong failedFlushes = new AtomicLong();
+	private final AtomicLong rejectedDocs = new AtomicLong();
+	private final List<RejectionListener> rejectionListeners = new CopyOnWriteArrayList<>();
+
+	private final ScheduledExecutorService scheduler;
+
+	//Notified of each document Solr refused to index after the request that wrote it has returned.
+	@FunctionalInterface
+	public interface RejectionListener {
+		void rejected(SolrInputDocument doc, SolrException e);
+	}
+
+	public BufferedIndexWriter(HttpSolrClient client, String collection) {
+		this(client, collection, Tools.getIntProperty("solr.writer.bufferSize", 200),
+				Tools.getIntProperty("solr.writer.flushInterval", 1000),
+				Tools.getIntProperty("solr.writer.commitWithin", 1000));
+	}
+
+	public BufferedIndexWriter(HttpSolrClient client, String collection, int maxBufferSize, long flushInterval, int commitWithin) {
+		this.client = client;
+		this.collection = collection;
+		this.maxBufferSize = maxBufferSize;
+		this.commitWithin = commitWithin;
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "Solr-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+		Runtime.getRuntime().addShutdownHook(new Thread(this::flushQuietly));
+	}
+
+	public void add(Collection<SolrInputDocument> docs) {
+		boolean full;
+		synchronized (bufferLock) {
+			buffer.addAll(docs);
+			full = buffer.size() >= maxBufferSize;
+		}
+		if (full) {
+			flush();
+		}
+	}
+
+	public void deleteByQuery(String query) throws SolrServerException {
+		//pending adds must reach Solr first so a delete issued after an add is applied after it
+		synchronized (flushLock) {
+			flush();
+			try {
+				client.deleteByQuery(collection, query, commitWithin);
+			} catch (IOException e) {
+				throw new SolrServerException(e);
+			}
+		}
+	}
+
+	//Deletes the documents matching the query and adds the replacements in one update request, so no commit
+	//can make the index visible with the old documents removed but the new ones missing.
+	public void replace(String deleteQuery, Collection<SolrInputDocument> docs) throws SolrServerException {
+		synchronized (flushLock) {
+			flush();
+			try {
+				UpdateRequest request = new UpdateRequest();
+				request.deleteByQuery(deleteQuery);
+				if (!docs.isEmpty()) {
+					request.add(docs);
+				}
+				request.setCommitWithin(commitWithin);
+				request.process(client, collection);
+			} catch (IOException e) {
+				throw new SolrServerException(e);
+			}
+		}
+	}
+
+	//Sends a single document straight to Solr after the buffered updates, so that a rejection such as a version
+	//conflict reaches the caller.  Returns the version Solr assigned to the document.
+	public Long addNow(SolrInputDocument doc) throws SolrServerException {
+		synchronized (flushLock) {
+			flush();
+			try {
+				UpdateRequest request = new UpdateRequest();
+				request.add(doc);
+				request.setParam(UpdateParams.VERSIONS, "true");
+				request.setCommitWithin(commitWithin);
+				NamedList<?> versions = (NamedList<?>) request.process(client, collection).getResponse().get("adds");
+				return versions != null ? (Long) versions.get(doc.getFieldValue("id").toString()) : null;
+			} catch (IOException e) {
+				throw new SolrServerException(e);
+			}
+		}
+	}
+
+	public void flush() {
+		synchronized (flushLock) {
+			List<SolrInputDocument> pending;
+			synchronized (bufferLock) {
+				if (buffer.isEmpty()) {
+					return;
+				}
+				pending = buffer;
+				buffer = new ArrayList<>();
+			}
+
+			long start = System.currentTimeMillis();
+			try {
+				UpdateRequest request = new UpdateRequest();
+				request.add(pending);
+				request.setCommitWithin(commitWithin);
+				request.process(client, collection);
+				flushedDocs.addAndGet(pending.size());
+			} catch (IOException | SolrServerException e) {
+				//Solr could not be reached; keep the documents so the next flush retries them
+				failedFlushes.incrementAndGet();
+				requeue(pending);
+				logger.error(e.getMessage(), e);
+			} catch (SolrException e) {
+				//Solr refused the batch because of some document in it, so the documents are resent one at a time
+				//to index the rest and single out the rejected ones
+				failedFlushes.incrementAndGet();
+				logger.warn("Batch of " + pending.size() + " documents rejected, resending individually: " + e.getMessage());
+				addIndividually(pending);
+			} finally {
+				recordFlush(System.currentTimeMillis() - start);
+			}
+		}
+	}
+
+	private void addIndividually(List<SolrInputDocument> docs) {
+		for (int i = 0; i < docs.size(); i++) {
+			SolrInputDocument doc = docs.get(i);
+			try {
+				UpdateRequest request = new UpdateRequest();
+				request.add(doc);
+				request.setCommitWithin(commitWithin);
+				request.process(client, collection);
+				flushedDocs.incrementAndGet();
+			} catch (IOException | SolrServerException e) {
+				requeue(new ArrayList<>(docs.subList(i, docs.size())));
+				logger.error(e.getMessage(), e);
+				return;
+			} catch (SolrException e) {
+				rejectedDocs.incrementAndGet();
+				logger.error("Solr rejected document " + doc.getFieldValue("id") + ": " + e.getMessage());
+				for (RejectionListener listener : rejectionListeners) {
+					try {
+						listener.rejected(doc, e);
+					} catch (RuntimeException ex) {
+						logger.error(ex.getMessage(), ex);
+					}
+				}
+			}
+		}
+	}
+
+	private void requeue(List<SolrInputDocument> docs) {
+		synchronized (bufferLock) {
+			docs.addAll(buffer);
+			buffer = docs;
+		}
+	}
+
+	public void addRejectionListener(RejectionListener listener) {
+		rejectionListeners.add(listener);
+	}
+
+	//Flushes the buffer and opens a new searcher so every write made so far is visible to queries.
+	public void commit() throws SolrServerException {
+		synchronized (flushLock) {
+			flush();
+			try {
+				client.commit(collection, true, true, true);
+			} catch (IOException e) {
+				throw new SolrServerException(e);
+			}
+		}
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (Exception e) {
+			logger.error(e.getMessage(), e);
+		}
+	}
+
+	private void recordFlush(long millis) {
+		flushCount.incrementAndGet();
+		totalFlushMillis.addAndGet(millis);
+		lastFlushMillis.set(millis);
+		maxFlushMillis.accumulateAndGet(millis, Math::max);
+	}
+
+	public int getQueueDepth() {
+		synchronized (bufferLock) {
+			return buffer.size();
+		}
+	}
+
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		long flushes = flushCount.get();
+		stats.put("queueDepth", getQueueDepth());
+		stats.put("flushes", flushes);
+		stats.put("failedFlushes", failedFlushes.get());
+		stats.put("flushedDocs", flushedDocs.get());
+		stats.put("rejectedDocs", rejectedDocs.get());
+		stats.put("lastFlushMillis", lastFlushMillis.get());
+		stats.put("maxFlushMillis", maxFlushMillis.get());
+		stats.put("avgFlushMillis", flushes > 0 ? (double) totalFlushMillis.get() / flushes : 0.0);
+		return stats;
+	}
+
+	public void close() {
+		scheduler.shutdown();
+		flushQuietly();
+	}
+}
@@ -0,0 +1,90 @@
+package solrapi;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import common.Tools;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.SolrParams;
+
+//Caches query responses by their normalized parameters for a short time, so that clients polling the same
+//listing are answered without a request to Solr.  Every write bumps a generation number that is part of the
+//key, which makes the entries cached before the write unreachable; they age out through the size and time
+//limits.  Writes only become visible in Solr after the buffered writer flushes and commitWithin elapses, so
+//responses read within that settle time of a write are not cached.
+public class QueryResultCache {
+
+	private final Cache<String, QueryResponse> cache;
+	private final AtomicLong generation = new AtomicLong();
+	private final AtomicLong lastWriteNanos = new AtomicLong(System.nanoTime());
+	private final long settleNanos;
+
+	public QueryResultCache() {
+		this(Tools.getIntProperty("solr.queryCache.size", 1000),
+				Tools.getLongProperty("solr.queryCache.ttl", 30000),
+				Tools.getLongProperty("solr.queryCache.settleTime",
+						Tools.getLongProperty("solr.writer.flushInterval", 1000) + Tools.getLongProperty("solr.writer.commitWithin", 1000)));
+	}
+
+	public QueryResultCache(int maxSize, long ttlMillis, long settleMillis) {
+		this.settleNanos = TimeUnit.MILLISECONDS.toNanos(settleMillis);
+		cache = CacheBuilder.newBuilder()
+				.maximumSize(maxSize)
+				.expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+				.recordStats()
+				.build();
+		//nothing was written before startup, so responses may be cached right away
+		lastWriteNanos.set(System.nanoTime() - settleNanos);
+	}
+
+	public QueryResponse get(SolrParams params) {
+		return cache.getIfPresent(getKey(params));
+	}
+
+	public void put(SolrParams params, QueryResponse response) {
+		if (response != null && System.nanoTime() - lastWriteNanos.get() >= settleNanos) {
+			cache.put(getKey(params), response);
+		}
+	}
+
+	//Called for every update sent to the index.
+	public void invalidate() {
+		lastWriteNanos.set(System.nanoTime());
+		generation.incrementAndGet();
+	}
+
+	//Parameters are sorted by name, and filter queries by value since their order does not change the result.
+	private String getKey(SolrParams params) {
+		StringBuilder key = new StringBuilder().append(generation.get());
+		SortedSet<String> names = new TreeSet<>();
+		params.getParameterNamesIterator().forEachRemaining(names::add);
+		for (String name : names) {
+			String[] values = params.getParams(name);
+			if (name.equals(CommonParams.FQ)) {
+				values = values.clone();
+				Arrays.sort(values);
+			}
+			for (String value : values) {
+				key.append('&').append(name).append('=').append(value);
+			}
+		}
+		return key.toString();
+	}
+
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		CacheStats cacheStats = cache.stats();
+		stats.put("size", cache.size());
+		stats.put("generation", generation.get());
+		stats.put("hits", cacheStats.hitCount());
+		stats.put("misses", cacheStats.missCount());
+		stats.put("hitRatio", cacheStats.hitRate());
+		stats.put("evictions", cacheStats.evictionCount());
+		return stats;
+	}
+}
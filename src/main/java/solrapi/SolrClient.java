@@ -19,16 +19,21 @@ import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.util.Strings;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrQuery.SortClause;
+import org.apache.solr.client.solrj.SolrRequest;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.StreamingResponseCallback;
 import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.request.GenericSolrRequest;
 import org.apache.solr.client.solrj.response.QueryResponse;
-import org.apache.solr.client.solrj.response.UpdateResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.common.params.MoreLikeThisParams;
+import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.SimpleOrderedMap;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -42,10 +47,14 @@ public class SolrClient {
 	final static Logger logger = LogManager.getLogger(SolrClient.class);
 
 	private HttpSolrClient client;
+	private BufferedIndexWriter writer;
+	private QueryResultCache queryCache;
 	private static ObjectMapper mapper = new ObjectMapper();
 	
 	public SolrClient(String solrHostURL) {
 		client = new HttpSolrClient.Builder(solrHostURL).build();
+		writer = new BufferedIndexWriter(client, COLLECTION);
+		queryCache = new QueryResultCache();
 	}
 	
 	public static void main(String[] args) {
@@ -58,8 +67,7 @@ public class SolrClient {
 
 	private static void retrieveAnnotatedData(SolrClient client, String id) {
 		try {
-			SolrDocumentList docs = client.QuerySolrDocuments("id:" + id, 1, 0, null);
-			SolrDocument doc = docs.get(0);
+			SolrDocument doc = client.getById(id);
 
 			String annotated = (String)doc.get("annotated");
 
@@ -72,8 +80,7 @@ public class SolrClient {
 	private static void updateAnnotatedData(SolrClient client, String id) {
 		String annotated = Tools.GetFileString("data/annotated.txt");
 		try {
-			SolrDocumentList docs = client.QuerySolrDocuments("id:" + id, 1, 0, null);
-			SolrDocument doc = docs.get(0);
+			SolrDocument doc = client.getById(id);
 			if (doc.containsKey("annotated")) {
 				doc.replace("annotated", annotated);
 			} else {
@@ -81,30 +88,82 @@ public class SolrClient {
 			}
 
 			client.indexDocument(doc);
+			client.flush();
 		} catch (SolrServerException e) {
 			e.printStackTrace();
 		}
 	}
 	
 	public void indexDocuments(Collection<SolrDocument> docs) throws SolrServerException {
-		try {
-			if (!docs.isEmpty()) {
-				List<SolrInputDocument> inputDocuments = new ArrayList<>();
-				for (SolrDocument doc : docs) {
-					SolrInputDocument solrInputDocument = convertSolrDocument(doc);
-					inputDocuments.add(solrInputDocument);
-				}
+		addDocuments(docs);
+	}
+
+	public void addDocuments(Collection<SolrDocument> docs) throws SolrServerException {
+		if (!docs.isEmpty()) {
+			List<SolrInputDocument> inputDocuments = new ArrayList<>();
+			for (SolrDocument doc : docs) {
+				SolrInputDocument solrInputDocument = convertSolrDocument(doc);
+				inputDocuments.add(solrInputDocument);
+			}
+
+			writer.add(inputDocuments);
+			queryCache.invalidate();
+		}
+	}
+
+	//Sends any buffered updates to Solr; they become visible once commitWithin elapses.
+	public void flush() {
+		writer.flush();
+	}
+
+	//Sends any buffered updates and soft commits so they are visible to the next query.
+	public void commit() throws SolrServerException {
+		writer.commit();
+	}
+
+	public void addRejectionListener(BufferedIndexWriter.RejectionListener listener) {
+		writer.addRejectionListener(listener);
+	}
+
+	public Map<String, Object> getWriterStatistics() {
+		return writer.getStatistics();
+	}
+
+	public Map<String, Object> getQueryCacheStatistics() {
+		return queryCache.getStatistics();
+	}
 
-				client.add(COLLECTION, inputDocuments);
-				UpdateResponse updateResponse = client.commit(COLLECTION);
-				
-				if (updateResponse.getStatus() != 0) {
-					//TODO What should happen if the update fails?
+	//Hit ratios and sizes of the searcher caches, from the CACHE category of the collection's mbeans handler.
+	public Map<String, Object> getCacheStatistics() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		ModifiableSolrParams params = new ModifiableSolrParams();
+		params.set("cat", "CACHE");
+		params.set("stats", true);
+		try {
+			NamedList<Object> response = client.request(new GenericSolrRequest(SolrRequest.METHOD.GET, "/admin/mbeans", params), COLLECTION);
+			NamedList<?> caches = (NamedList<?>) response.findRecursive("solr-mbeans", "CACHE");
+			if (caches == null) {
+				return stats;
+			}
+			for (String cacheName : Arrays.asList("filterCache", "queryResultCache", "documentCache")) {
+				Object cacheStats = caches.findRecursive(cacheName, "stats");
+				Map<String, Object> values = new LinkedHashMap<>();
+				if (cacheStats instanceof NamedList) {
+					((NamedList<?>) cacheStats).forEach(p -> values.put(getStatName(p.getKey()), p.getValue()));
+				} else if (cacheStats instanceof Map) {
+					((Map<?, ?>) cacheStats).forEach((k, v) -> values.put(getStatName(k.toString()), v));
 				}
+				stats.put(cacheName, values);
 			}
-		} catch (IOException e) {
+		} catch (SolrServerException | IOException e) {
 			logger.error(e.getMessage(), e);
 		}
+		return stats;
+	}
+
+	//Solr 7 reports cache statistics as metrics such as CACHE.searcher.filterCache.hitratio
+	private static String getStatName(String key) {
+		return key.substring(key.lastIndexOf('.') + 1);
 	}
 
 	private SolrInputDocument convertSolrDocument(SolrDocument doc) {
@@ -130,18 +189,75 @@ public class SolrClient {
 		indexDocuments(docs);
 	}
 
+	//Sets the given fields of a document with an atomic update instead of resending the whole document.  A
+	//version above 1 makes the update apply only while the document is still at that version, and version 1
+	//only if the document exists.  Returns the document's new version, or null if the version check failed.
+	public Long updateFields(String id, Map<String, Object> fields, long version) throws SolrServerException {
+		SolrInputDocument doc = new SolrInputDocument();
+		doc.addField("id", id);
+		for (Map.Entry<String, Object> field : fields.entrySet()) {
+			doc.addField(field.getKey(), Collections.singletonMap("set", field.getValue()));
+		}
+		doc.addField("_version_", version);
+		try {
+			queryCache.invalidate();
+			return writer.addNow(doc);
+		} catch (SolrException e) {
+			if (e.code() == SolrException.ErrorCode.CONFLICT.code) {
+				return null;
+			}
+			throw e;
+		}
+	}
+
 	public void deleteDocuments(String query) throws SolrServerException {
-	    try {
-			client.deleteByQuery(COLLECTION, query);
-			UpdateResponse updateResponse = client.commit(COLLECTION);
+		queryCache.invalidate();
+		writer.deleteByQuery(query);
+	}
+
+	//Real-time get, which sees documents that have been sent to Solr but not yet committed.
+	public SolrDocument getById(String id) throws SolrServerException {
+		return getById(id, null);
+	}
 
-            if (updateResponse.getStatus() != 0) {
-                //TODO What should happen if the update fails?
-            }
-        } catch (IOException e) {
+	public SolrDocument getById(String id, String fieldList) throws SolrServerException {
+		flush();
+		try {
+			SolrQuery params = new SolrQuery();
+			if (fieldList != null) {
+				params.setFields(fieldList);
+			}
+			return client.getById(COLLECTION, id, params);
+		} catch (IOException e) {
 			logger.error(e.getMessage(), e);
-        }
-    }
+			return null;
+		}
+	}
+
+	//Real-time get of several documents in one request; ids that do not exist are left out of the result.
+	public SolrDocumentList getByIds(Collection<String> ids, String fieldList) throws SolrServerException {
+		flush();
+		try {
+			SolrQuery params = new SolrQuery();
+			if (fieldList != null) {
+				params.setFields(fieldList);
+			}
+			return client.getById(COLLECTION, ids, params);
+		} catch (IOException e) {
+			logger.error(e.getMessage(), e);
+			return null;
+		}
+	}
+
+	//Replaces the documents matching deleteQuery with docs in a single update.
+	public void replaceDocuments(String deleteQuery, Collection<SolrDocument> docs) throws SolrServerException {
+		List<SolrInputDocument> inputDocuments = new ArrayList<>();
+		for (SolrDocument doc : docs) {
+			inputDocuments.add(convertSolrDocument(doc));
+		}
+		queryCache.invalidate();
+		writer.replace(deleteQuery, inputDocuments);
+	}
 
 	public Boolean DocumentExists(String queryStr) throws SolrServerException {
 		SolrQuery query = new SolrQuery();
@@ -162,7 +278,7 @@ public class SolrClient {
 		query.setQuery(queryStr);
 		query.add("json.facet", facetQuery);
 		try {
-			QueryResponse response = client.query(COLLECTION, query);
+			QueryResponse response = cachedQuery(query);
 			SimpleOrderedMap<?> facets = (SimpleOrderedMap<?>) response.getResponse().get("facets");
 			return facets;
 		} catch (IOException e) {
@@ -185,9 +301,35 @@ public class SolrClient {
 		}
 	}
 
+	//Always queries Solr, since callers of this overload may modify the documents and index them again.
 	public SolrDocumentList QuerySolrDocuments(String queryStr, int rows, int start, SortClause sort, String... filterQueries) throws SolrServerException {
+		SolrQuery query = getDocumentQuery(queryStr, null, rows, start, sort, filterQueries);
+		try {
+			return client.query(COLLECTION, query).getResults();
+		} catch (IOException e) {
+			logger.error(e.getMessage(), e);
+			return null;
+		}
+	}
+
+	//fieldList is passed as fl to return only those fields; null returns every stored field.  The results may
+	//come from the query cache and are shared with other callers, so they must not be modified.
+	public SolrDocumentList QuerySolrDocuments(String queryStr, String fieldList, int rows, int start, SortClause sort, String... filterQueries) throws SolrServerException {
+		SolrQuery query = getDocumentQuery(queryStr, fieldList, rows, start, sort, filterQueries);
+		try {
+			return cachedQuery(query).getResults();
+		} catch (IOException e) {
+			logger.error(e.getMessage(), e);
+			return null;
+		}
+	}
+
+	private SolrQuery getDocumentQuery(String queryStr, String fieldList, int rows, int start, SortClause sort, String... filterQueries) {
 		SolrQuery query = new SolrQuery();
 		query.setQuery(queryStr);
+		if (fieldList != null) {
+			query.setFields(fieldList);
+		}
 		if (filterQueries != null) {
 			query.setFilterQueries(filterQueries);
 		}
@@ -195,12 +337,97 @@ public class SolrClient {
 		query.setStart(start);
 		if (sort != null) {
 			query.setSort(sort);
-		} else {
+		}
+		return query;
+	}
+
+	private QueryResponse cachedQuery(SolrQuery query) throws SolrServerException, IOException {
+		QueryResponse response = queryCache.get(query);
+		if (response == null) {
+			response = client.query(COLLECTION, query);
+			queryCache.put(query, response);
+		}
+		return response;
+	}
 
+	//Fetches one page of a cursor paged query, starting at cursorMark ("*" for the first page).  Cursors require
+	//a sort ending on the unique key, so id is added as a tiebreaker.  The next cursor is read from the response;
+	//it equals cursorMark once the last page has been returned.
+	public QueryResponse QuerySolrDocuments(String queryStr, String fieldList, int rows, String cursorMark, List<SortClause> sorts, String... filterQueries) throws SolrServerException {
+		SolrQuery query = new SolrQuery();
+		query.setQuery(queryStr);
+		if (fieldList != null) {
+			query.setFields(fieldList);
 		}
+		if (filterQueries != null) {
+			query.setFilterQueries(filterQueries);
+		}
+		query.setRows(rows);
+		if (sorts != null) {
+			query.setSorts(new ArrayList<>(sorts));
+		}
+		if (query.getSorts().stream().noneMatch(p -> p.getItem().equals("id"))) {
+			query.addSort("id", SolrQuery.ORDER.asc);
+		}
+		query.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
 		try {
-			SolrDocumentList response = client.query(COLLECTION, query).getResults();
-			return response;
+			return cachedQuery(query);
+		} catch (IOException e) {
+			logger.error(e.getMessage(), e);
+			return null;
+		}
+	}
+
+	//Finds the documents with at least one extracted location matching locationFilter.  The location documents
+	//are joined back to their parents by docId within the same request.
+	public SolrDocumentList QueryDocumentsByLocation(String queryStr, String locationFilter, String fieldList, int rows, int start, SortClause sort, String... filterQueries) throws SolrServerException {
+		SolrQuery query = new SolrQuery();
+		query.setQuery(queryStr);
+		if (fieldList != null) {
+			query.setFields(fieldList);
+		}
+		if (filterQueries != null) {
+			query.setFilterQueries(filterQueries);
+		}
+		query.addFilterQuery("{!join from=docId to=id v=$locationFilter}");
+		query.set("locationFilter", locationFilter);
+		query.setRows(rows);
+		query.setStart(start);
+		if (sort != null) {
+			query.setSort(sort);
+		}
+		try {
+			return client.query(COLLECTION, query).getResults();
+		} catch (IOException e) {
+			logger.error(e.getMessage(), e);
+			return null;
+		}
+	}
+
+	//Counts the extracted locations matching locationFilter in a grid over geometry.  gridLevel sets the cell
+	//size; when null Solr picks a level giving a grid of manageable size.
+	public Map<String, Object> QueryLocationHeatmap(String locationFilter, String geometry, Integer gridLevel) throws SolrServerException {
+		SolrQuery query = new SolrQuery();
+		query.setRows(0);
+		query.setQuery("docId:*");
+		if (locationFilter != null) {
+			query.addFilterQuery(locationFilter);
+		}
+		query.setFacet(true);
+		query.set("facet.heatmap", "locationGrid");
+		query.set("facet.heatmap.geom", geometry);
+		if (gridLevel != null) {
+			query.set("facet.heatmap.gridLevel", gridLevel);
+		}
+		try {
+			QueryResponse response = client.query(COLLECTION, query);
+			NamedList<?> heatmap = (NamedList<?>) response.getResponse().findRecursive("facet_counts", "facet_heatmaps", "locationGrid");
+			if (heatmap == null) {
+				return null;
+			}
+			Map<String, Object> values = new LinkedHashMap<>();
+			heatmap.forEach(p -> values.put(p.getKey(), p.getValue()));
+			return values;
 		} catch (IOException e) {
 			logger.error(e.getMessage(), e);
 			return null;
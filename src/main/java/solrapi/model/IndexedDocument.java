@@ -24,7 +24,6 @@ import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
 import common.Tools;
-import opennlp.tools.stemmer.PorterStemmer;
 import opennlp.tools.tokenize.TokenizerModel;
 
 public class IndexedDocument extends IndexedObject {
@@ -72,9 +71,11 @@ public class IndexedDocument extends IndexedObject {
     }
 
     private String getNormalizedDocCatString(Stemmer stemmer) {
-        String docCatStr = docText.replace("\r", " ").replace("\n", " ");
+        return NLPTools.normalizeText(stemmer, getDocCatString());
+    }
 
-        return NLPTools.normalizeText(stemmer, docCatStr);
+    private String getDocCatString() {
+        return docText.replace("\r", " ").replace("\n", " ");
     }
 
     public void updateLastUpdatedDate() {
@@ -82,7 +83,7 @@ public class IndexedDocument extends IndexedObject {
     }
 
     public String GetModelTrainingForm() {
-        return category + "\t" + getNormalizedDocCatString(new PorterStemmer());
+        return category + "\t" + NLPTools.normalizeText(getDocCatString());
     }
 
     public String GetClusteringForm() {
@@ -1,7 +1,6 @@
 package solrapi.model;
 
 import java.time.Instant;
-import java.time.Period;
 import java.util.Arrays;
 
 import common.Tools;
@@ -9,36 +8,39 @@ import common.Tools;
 public abstract class IndexedDocumentsQuery {
 	protected final String queryTimeStamp = Tools.getFormattedDateTimeString(Instant.now());
 	
+	//Returns null when no values are given, so that no empty fq is sent.
 	protected String getFilterQuery(String type, String[] params) {
-		if (params != null) {
+		if (params != null && params.length > 0) {
 			String fq = Arrays.stream(params).map(p -> type + ":" + p).reduce((c, n) -> c + " OR " + n).get();
 			return fq;
 		}
 		else {
-			return "";
+			return null;
 		}
 	}
 	
+	//Date ranges are built to be reused as filter queries: relative ranges are rounded to the day and open ended
+	//ranges are left unbounded rather than pinned to the time of the request, so repeated requests produce the
+	//same filter string and are answered from Solr's filterCache.
 	protected String getTimeRangeQuery(String temporalParam, String[] startDate, String[] endDate, int[] numDaysPrevious) {
 		String query;
 		
-		if (startDate == null && endDate == null && numDaysPrevious != null) {
-			query = temporalParam + ":[" + getPreviousDate(numDaysPrevious) + " TO NOW]";
+		if (startDate == null && endDate == null && numDaysPrevious != null && numDaysPrevious.length > 0) {
+			query = temporalParam + ":[NOW/DAY-" + numDaysPrevious[0] + "DAYS TO *]";
 			return query;
 		}
 		
 		if (startDate != null && startDate.length > 0) {
 			query = temporalParam + ":[" + startDate[0] +  " TO ";
 		} else {
-			String unixEpoch = Tools.getFormattedDateTimeString(Instant.ofEpochSecond(0, 0));
-			query = temporalParam + ":[" + unixEpoch +  " TO " + queryTimeStamp + "]";
+			query = temporalParam + ":[* TO *]";
 			return query;
 		}
 		
 		if (endDate != null && endDate.length > 0) {
 			query += endDate[0];
 		} else {
-			query += queryTimeStamp;
+			query += "*";
 		}
 		
 		query += "]";
@@ -46,10 +48,6 @@ public abstract class IndexedDocumentsQuery {
 		return query;
 	}
 	
-	private String getPreviousDate(int[] numDaysPrevious) {
-		return Tools.getFormattedDateTimeString(Instant.now().minus(Period.ofDays(numDaysPrevious[0])));
-	}
-	
 	public String getQueryTimeStamp() {
 		return queryTimeStamp;
 	}
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import common.Tools;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class IndexedDocumentsQueryParams extends IndexedDocumentsQuery {
@@ -13,24 +14,46 @@ public class IndexedDocumentsQueryParams extends IndexedDocumentsQuery {
     private int[] rows;
     private int[] page;
     private String[] docText;
+    private String[] cursor;
+    private String[] fields;
 
+    private static final int defaultRows = Tools.getIntProperty("solr.defaultRows", 50);
+    private static final int maxRows = Tools.getIntProperty("solr.maxRows", 1000);
+    private static final int maxOffset = Tools.getIntProperty("solr.maxOffset", 10000);
+    //listings leave out docText and annotated, which dwarf the rest of a document
+    private static final String summaryFields = Tools.getProperties().getProperty("solr.summaryFields", "id,filename,category,created,lastUpdated,docStoreId,url");
+
+    //All constraints are sent as filter queries, which Solr caches independently of each other.
     public String getQuery() {
-        return getTimeRangeQuery("created", startDate, endDate, numDaysPrevious);
+        return "*:*";
     }
 
     public String[] getFilterQueries() {
         List<String> fqs = new ArrayList<String>();
 
-        fqs.add(getFilterQuery("docText", docText));
+        fqs.add(getTimeRangeQuery("created", startDate, endDate, numDaysPrevious));
+        String docTextFilter = getFilterQuery("docText", docText);
+        if (docTextFilter != null) {
+            fqs.add(docTextFilter);
+        }
 
         return fqs.toArray(new String[fqs.size()]);
     }
 
+    //Solr fl for the requested fields; the summary fields unless fields is given, and every field for "*".
+    public String getFieldList() {
+        if (getFields() != null && getFields().length > 0) {
+            return String.join(",", getFields());
+        } else {
+            return summaryFields;
+        }
+    }
+
     public int getQueryRows() {
         if (getRows() != null && getRows().length > 0) {
-            return getRows()[0];
+            return Math.max(0, Math.min(getRows()[0], maxRows));
         } else {
-            return Integer.MAX_VALUE;
+            return defaultRows;
         }
     }
 
@@ -42,6 +65,29 @@ public class IndexedDocumentsQueryParams extends IndexedDocumentsQuery {
         }
     }
 
+    //Pages are fetched by cursor unless a page number is given.  The first cursor page starts at "*".
+    public boolean isCursorQuery() {
+        return getPageNum() == null || getPageNum().length == 0;
+    }
+
+    public String getCursorMark() {
+        if (getCursor() != null && getCursor().length > 0 && !getCursor()[0].isEmpty()) {
+            return getCursor()[0];
+        } else {
+            return "*";
+        }
+    }
+
+    //Page numbers start at 1; anything lower would send Solr a negative start.
+    public boolean isPageValid() {
+        return isCursorQuery() || getPageNum()[0] >= 1;
+    }
+
+    //Offset paging makes Solr collect and sort every document before the page, so deep pages must use a cursor.
+    public boolean isOffsetWithinLimit() {
+        return (long) getQueryStart() + getQueryRows() <= maxOffset;
+    }
+
     public int[] getNumDaysPrevious() {
         return numDaysPrevious;
     }
@@ -85,5 +131,21 @@ public class IndexedDocumentsQueryParams extends IndexedDocumentsQuery {
     public void setDocText(String[] docText) {
         this.docText = docText;
     }
+
+    public String[] getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String[] cursor) {
+        this.cursor = cursor;
+    }
+
+    public String[] getFields() {
+        return fields;
+    }
+
+    public void setFields(String[] fields) {
+        this.fields = fields;
+    }
 }
 
@@ -0,0 +1,110 @@
+package solrapi.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+//Query parameters for searching documents by their extracted locations.  Either a radius (lat, lon and
+//distance in kilometers) or a bounding box (minLat, minLon, maxLat, maxLon) selects the location documents;
+//the remaining parameters filter the parent documents as in IndexedDocumentsQueryParams.
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class SpatialQueryParams extends IndexedDocumentsQueryParams {
+    private Double lat;
+    private Double lon;
+    private Double distance;
+    private Double minLat;
+    private Double minLon;
+    private Double maxLat;
+    private Double maxLon;
+    private Integer gridLevel;
+
+    public boolean isRadiusQuery() {
+        return lat != null && lon != null && distance != null;
+    }
+
+    public boolean isBoundingBoxQuery() {
+        return minLat != null && minLon != null && maxLat != null && maxLon != null;
+    }
+
+    //Filter on the location documents, or null if neither a complete radius nor a bounding box was given.
+    public String getSpatialFilter() {
+        if (isRadiusQuery()) {
+            return "{!geofilt sfield=location pt=" + lat + "," + lon + " d=" + distance + "}";
+        } else if (isBoundingBoxQuery()) {
+            return "location:[" + minLat + "," + minLon + " TO " + maxLat + "," + maxLon + "]";
+        } else {
+            return null;
+        }
+    }
+
+    //Area covered by a heatmap; the bounding box if one was given, otherwise the whole world.
+    public String getHeatmapGeometry() {
+        if (isBoundingBoxQuery()) {
+            return "[\"" + minLon + " " + minLat + "\" TO \"" + maxLon + " " + maxLat + "\"]";
+        } else {
+            return "[\"-180 -90\" TO \"180 90\"]";
+        }
+    }
+
+    public Double getLat() {
+        return lat;
+    }
+
+    public void setLat(Double lat) {
+        this.lat = lat;
+    }
+
+    public Double getLon() {
+        return lon;
+    }
+
+    public void setLon(Double lon) {
+        this.lon = lon;
+    }
+
+    public Double getDistance() {
+        return distance;
+    }
+
+    public void setDistance(Double distance) {
+        this.distance = distance;
+    }
+
+    public Double getMinLat() {
+        return minLat;
+    }
+
+    public void setMinLat(Double minLat) {
+        this.minLat = minLat;
+    }
+
+    public Double getMinLon() {
+        return minLon;
+    }
+
+    public void setMinLon(Double minLon) {
+        this.minLon = minLon;
+    }
+
+    public Double getMaxLat() {
+        return maxLat;
+    }
+
+    public void setMaxLat(Double maxLat) {
+        this.maxLat = maxLat;
+    }
+
+    public Double getMaxLon() {
+        return maxLon;
+    }
+
+    public void setMaxLon(Double maxLon) {
+        this.maxLon = maxLon;
+    }
+
+    public Integer getGridLevel() {
+        return gridLevel;
+    }
+
+    public void setGridLevel(Integer gridLevel) {
+        this.gridLevel = gridLevel;
+    }
+}
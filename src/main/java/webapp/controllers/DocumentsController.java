@@ -1,15 +1,21 @@
 package webapp.controllers;
 
-import com.google.common.base.CharMatcher;
 import com.mongodb.client.gridfs.model.GridFSFile;
 import common.Tools;
+import geoparsing.LocationExtractorType;
 import geoparsing.LocationResolver;
+import ingestion.DocumentProcessor;
+import ingestion.IngestionBatch;
+import ingestion.IngestionJob;
+import ingestion.IngestionPipeline;
+import ingestion.StagedUpload;
 import mongoapi.DocStoreMongoClient;
 import nlp.DocumentCategorizer;
 import nlp.NamedEntityRecognizer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.bson.types.ObjectId;
@@ -23,6 +29,7 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import solrapi.SolrClient;
 import solrapi.model.IndexedDocumentsQueryParams;
+import solrapi.model.SpatialQueryParams;
 import webapp.models.JsonResponse;
 import webapp.services.NERModelTrainingService;
 import webapp.services.TemporaryRepoCleanupService;
@@ -30,9 +37,13 @@ import webapp.services.TemporaryRepoCleanupService;
 import javax.servlet.http.HttpServletRequest;
 import java.io.File;
 import java.io.FileInputStream;
-import java.nio.file.Files;
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 @CrossOrigin
 @RestController
@@ -43,8 +54,8 @@ public class DocumentsController {
     private DocumentCategorizer categorizer;
     private NamedEntityRecognizer recognizer;
     private final LocationResolver locationResolver;
-
-    private static String temporaryFileRepo = Tools.getProperty("mongodb.temporaryFileRepo");
+    private final DocumentProcessor processor;
+    private final IngestionPipeline pipeline;
 
     final static Logger logger = LogManager.getLogger(DocumentsController.class);
 
@@ -63,6 +74,8 @@ public class DocumentsController {
         categorizer = new DocumentCategorizer();
         recognizer = new NamedEntityRecognizer(solrClient);
         locationResolver = new LocationResolver();
+        processor = new DocumentProcessor(solrClient, categorizer, recognizer, locationResolver);
+        pipeline = new IngestionPipeline(processor);
     }
 
     @RequestMapping(method=RequestMethod.GET, produces=MediaType.APPLICATION_JSON_VALUE)
@@ -70,8 +83,21 @@ public class DocumentsController {
         logger.info(context.getRemoteAddr() + " -> " + "In getDocuments method");
         try {
             SolrQuery.SortClause sort = new SolrQuery.SortClause("lastUpdated", "desc");
-            SolrDocumentList docs = solrClient.QuerySolrDocuments(params.getQuery(), params.getQueryRows(), params.getQueryStart(), sort, params.getFilterQueries());
-            JsonResponse response = Tools.formJsonResponse(docs, params.getQueryTimeStamp());
+            JsonResponse response;
+            if (params.isCursorQuery()) {
+                String cursorMark = params.getCursorMark();
+                List<SolrQuery.SortClause> sorts = Arrays.asList(sort, new SolrQuery.SortClause("id", "asc"));
+                QueryResponse queryResponse = solrClient.QuerySolrDocuments(params.getQuery(), params.getFieldList(), params.getQueryRows(), cursorMark, sorts, params.getFilterQueries());
+                response = Tools.formJsonResponse(queryResponse.getResults(), params.getQueryTimeStamp());
+                String nextCursor = queryResponse.getNextCursorMark();
+                response.setNextCursor(nextCursor != null && !nextCursor.equals(cursorMark) ? nextCursor : null);
+            } else {
+                if (!params.isPageValid() || !params.isOffsetWithinLimit()) {
+                    return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Tools.formJsonResponse(null, params.getQueryTimeStamp()));
+                }
+                SolrDocumentList docs = solrClient.QuerySolrDocuments(params.getQuery(), params.getFieldList(), params.getQueryRows(), params.getQueryStart(), sort, params.getFilterQueries());
+                response = Tools.formJsonResponse(docs, params.getQueryTimeStamp());
+            }
             logger.info(context.getRemoteAddr() + " -> " + "Returning documents");
             return ResponseEntity.ok().body(response);
         } catch (Exception e) {
@@ -81,54 +107,90 @@ public class DocumentsController {
         }
     }
 
-    @RequestMapping(method=RequestMethod.POST, consumes=MediaType.MULTIPART_FORM_DATA_VALUE, produces=MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<JsonResponse> createDocument(@RequestPart("metadata") Map<String, Object> metadata, @RequestPart("file") MultipartFile document) {
+    @RequestMapping(value="/{id}/body", method=RequestMethod.GET, produces=MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<JsonResponse> getDocumentBody(@PathVariable(name="id") String id) {
+        logger.info(context.getRemoteAddr() + " -> " + "In getDocumentBody method");
         try {
-            logger.info(context.getRemoteAddr() + " -> " + "Storing new document");
-            String filename = document.getOriginalFilename();
-            File uploadedFile = Tools.WriteFileToDisk(temporaryFileRepo + filename, document.getInputStream());
-
-            List<SolrDocument> docs = new ArrayList<>();
-
-            SolrDocument solrDocument = new SolrDocument();
-            String docId = UUID.randomUUID().toString();
-            solrDocument.addField("id", docId);
-            solrDocument.addField("filename", filename);
-            metadata.entrySet().stream().forEach(p -> solrDocument.addField(p.getKey(), p.getValue()));
-
-            String timestamp = Tools.getFormattedDateTimeString(Instant.now());
-            solrDocument.addField("created", timestamp);
-            solrDocument.addField("lastUpdated", timestamp);
-
-            String contentType = Files.probeContentType(uploadedFile.toPath());
-            if (contentType.compareTo("application/pdf") == 0) {
-                String docText = Tools.extractPDFText(uploadedFile);
-                solrDocument.addField("docText", docText);
+            SolrDocument doc = solrClient.getById(id, "id,filename,docText,annotated");
+            if (doc == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Tools.formJsonResponse(null));
+            }
+            return ResponseEntity.ok().body(Tools.formJsonResponse(doc));
+        } catch (Exception e) {
+            logger.error(context.getRemoteAddr() + " -> " + e);
+            Tools.getExceptions().add(e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Tools.formJsonResponse(null));
+        }
+    }
 
-                //The pdf document may contain some arbitrary text encoding, in which case text extraction
-                // will be problematic.  In such a case the only option is to use OCR.
-                if (getAsciiPercentage(docText) < 0.8) {
-                    //TODO attempt to use OCR to extract pdf text (look into using Apache Tika)
-                    return ResponseEntity.unprocessableEntity().body(Tools.formJsonResponse(null));
-                }
+    @RequestMapping(value="/locations", method=RequestMethod.GET, produces=MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<JsonResponse> getDocumentsByLocation(SpatialQueryParams params) {
+        logger.info(context.getRemoteAddr() + " -> " + "In getDocumentsByLocation method");
+        String locationFilter = params.getSpatialFilter();
+        //location results are paged by offset only
+        if (locationFilter == null || params.isCursorQuery() || !params.isPageValid() || !params.isOffsetWithinLimit()) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Tools.formJsonResponse(null, params.getQueryTimeStamp()));
+        }
+        try {
+            SolrQuery.SortClause sort = new SolrQuery.SortClause("lastUpdated", "desc");
+            SolrDocumentList docs = solrClient.QueryDocumentsByLocation(params.getQuery(), locationFilter, params.getFieldList(), params.getQueryRows(), params.getQueryStart(), sort, params.getFilterQueries());
+            return ResponseEntity.ok().body(Tools.formJsonResponse(docs, params.getQueryTimeStamp()));
+        } catch (Exception e) {
+            logger.error(context.getRemoteAddr() + " -> " + e);
+            Tools.getExceptions().add(e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Tools.formJsonResponse(null, params.getQueryTimeStamp()));
+        }
+    }
 
-                String category = Tools.removeUTF8BOM(categorizer.detectCategory(docText));
-                solrDocument.addField("category", category);
-                String annotated = recognizer.autoAnnotate(docText, category, 0.5);
-                solrDocument.addField("annotated", annotated);
-                final Map<String, Double> entities = recognizer.detectNamedEntities(docText, category, 0.5);
+    @RequestMapping(value="/locations/heatmap", method=RequestMethod.GET, produces=MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<JsonResponse> getLocationHeatmap(SpatialQueryParams params) {
+        logger.info(context.getRemoteAddr() + " -> " + "In getLocationHeatmap method");
+        try {
+            Map<String, Object> heatmap = solrClient.QueryLocationHeatmap(params.getSpatialFilter(), params.getHeatmapGeometry(), params.getGridLevel());
+            return ResponseEntity.ok().body(Tools.formJsonResponse(heatmap, params.getQueryTimeStamp()));
+        } catch (Exception e) {
+            logger.error(context.getRemoteAddr() + " -> " + e);
+            Tools.getExceptions().add(e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Tools.formJsonResponse(null, params.getQueryTimeStamp()));
+        }
+    }
 
-                List<SolrDocument> locDocs = locationResolver.getLocationsFromDocument(docText, docId);
+    @RequestMapping(method=RequestMethod.POST, consumes=MediaType.MULTIPART_FORM_DATA_VALUE, produces=MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<JsonResponse> createDocument(@RequestPart("metadata") Map<String, Object> metadata, @RequestPart("file") MultipartFile document,
+                                                       @RequestParam(value="async", defaultValue="false") boolean async,
+                                                       @RequestParam(value="extractor", required=false) String extractor) {
+        LocationExtractorType extractorType;
+        try {
+            extractorType = LocationExtractorType.fromString(extractor, null);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Tools.formJsonResponse(null));
+        }
+        if (async) {
+            return submitDocument(metadata, document, extractorType);
+        }
+        try {
+            logger.info(context.getRemoteAddr() + " -> " + "Storing new document");
+            String filename = document.getOriginalFilename();
+            StagedUpload upload;
+            try (InputStream stream = document.getInputStream()) {
+                upload = IngestionPipeline.stageUpload(stream, filename);
+            }
 
-                docs.addAll(locDocs);
+            IngestionJob job = processor.createJob(metadata, upload, filename);
+            job.setLocationExtractor(extractorType);
+            pipeline.run(job).join();
+            if (job.getStatus() == IngestionJob.Status.REJECTED) {
+                return ResponseEntity.unprocessableEntity().body(Tools.formJsonResponse(null));
+            }
+            if (job.getStatus() == IngestionJob.Status.FAILED) {
+                //the pipeline records failures on the job rather than completing exceptionally
+                logger.error(context.getRemoteAddr() + " -> " + job.getMessage());
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Tools.formJsonResponse(job));
             }
 
             //ObjectId fileId = mongoClient.StoreFile(uploadedFile);
             //solrDocument.addField("docStoreId", fileId.toString());
 
-            docs.add(solrDocument);
-            solrClient.indexDocuments(docs);
-            cleanupService.process();
             return ResponseEntity.ok().body(Tools.formJsonResponse(null));
         } catch (Exception e) {
             logger.error(context.getRemoteAddr() + " -> " + e);
@@ -137,63 +199,161 @@ public class DocumentsController {
         }
     }
 
-    private double getAsciiPercentage(String docText) {
-        return (double)CharMatcher.ascii().countIn(docText) / (double)docText.length();
+    private ResponseEntity<JsonResponse> submitDocument(Map<String, Object> metadata, MultipartFile document, LocationExtractorType extractorType) {
+        try {
+            logger.info(context.getRemoteAddr() + " -> " + "Queueing new document for ingestion");
+            String filename = document.getOriginalFilename();
+            StagedUpload upload;
+            try (InputStream stream = document.getInputStream()) {
+                upload = IngestionPipeline.stageUpload(stream, filename);
+            }
+            IngestionJob job = processor.createJob(metadata, upload, filename);
+            job.setLocationExtractor(extractorType);
+            try {
+                pipeline.submit(job);
+            } catch (RejectedExecutionException e) {
+                job.releaseUploadedFile();
+                logger.warn(context.getRemoteAddr() + " -> " + e.getMessage());
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Tools.formJsonResponse(null));
+            }
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(Tools.formJsonResponse(job));
+        } catch (Exception e) {
+            logger.error(context.getRemoteAddr() + " -> " + e);
+            Tools.getExceptions().add(e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Tools.formJsonResponse(null));
+        }
+    }
+
+    @RequestMapping(value="/bulk", method=RequestMethod.POST, consumes=MediaType.MULTIPART_FORM_DATA_VALUE, produces=MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<JsonResponse> createDocuments(@RequestPart(value="metadata", required=false) Map<String, Object> metadata, @RequestPart("files") MultipartFile[] documents,
+                                                        @RequestParam(value="extractor", required=false) String extractor) {
+        LocationExtractorType extractorType;
+        try {
+            extractorType = LocationExtractorType.fromString(extractor, null);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Tools.formJsonResponse(null));
+        }
+        List<IngestionJob> jobs = new ArrayList<>();
+        try {
+            logger.info(context.getRemoteAddr() + " -> " + "Queueing " + documents.length + " uploaded file(s) for bulk ingestion");
+            for (MultipartFile document : documents) {
+                String filename = document.getOriginalFilename();
+                try (InputStream stream = document.getInputStream()) {
+                    if (filename != null && filename.toLowerCase().endsWith(".zip")) {
+                        jobs.addAll(stageArchive(metadata, stream));
+                    } else {
+                        jobs.add(processor.createJob(metadata, IngestionPipeline.stageUpload(stream, filename), filename));
+                    }
+                }
+            }
+            if (jobs.isEmpty()) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Tools.formJsonResponse(null));
+            }
+            jobs.forEach(p -> p.setLocationExtractor(extractorType));
+            IngestionBatch batch = pipeline.submitBatch(processor.createBatch(), jobs);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(Tools.formJsonResponse(batch));
+        } catch (Exception e) {
+            jobs.forEach(IngestionJob::releaseUploadedFile);
+            logger.error(context.getRemoteAddr() + " -> " + e);
+            Tools.getExceptions().add(e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Tools.formJsonResponse(null));
+        }
+    }
+
+    private List<IngestionJob> stageArchive(Map<String, Object> metadata, InputStream stream) throws IOException {
+        List<IngestionJob> jobs = new ArrayList<>();
+        ZipInputStream zipStream = new ZipInputStream(stream);
+        ZipEntry entry;
+        while ((entry = zipStream.getNextEntry()) != null) {
+            //only the base name of an entry is kept so archive paths cannot escape the staging directory
+            String filename = new File(entry.getName()).getName();
+            if (!entry.isDirectory() && !filename.isEmpty() && !filename.startsWith(".") && !entry.getName().startsWith("__MACOSX")) {
+                jobs.add(processor.createJob(metadata, IngestionPipeline.stageUpload(zipStream, filename), filename));
+            }
+            zipStream.closeEntry();
+        }
+        return jobs;
+    }
+
+    @RequestMapping(value="/batches/{id}", method=RequestMethod.GET, produces=MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<JsonResponse> getBatch(@PathVariable(name="id") String id) {
+        IngestionBatch batch = pipeline.getBatch(id);
+        if (batch != null) {
+            return ResponseEntity.ok().body(Tools.formJsonResponse(batch));
+        }
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Tools.formJsonResponse(null));
+    }
+
+    @RequestMapping(value="/stats", method=RequestMethod.GET, produces=MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<JsonResponse> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ingestionQueues", pipeline.getQueueDepths());
+        stats.put("indexWriter", solrClient.getWriterStatistics());
+        stats.put("geoParserPool", locationResolver.getPoolStatistics());
+        stats.put("queryCache", solrClient.getQueryCacheStatistics());
+        stats.put("solrCaches", solrClient.getCacheStatistics());
+        return ResponseEntity.ok().body(Tools.formJsonResponse(stats));
+    }
+
+    @RequestMapping(value="/jobs/{id}", method=RequestMethod.GET, produces=MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<JsonResponse> getJob(@PathVariable(name="id") String id) {
+        IngestionJob job = pipeline.getJob(id);
+        if (job != null) {
+            return ResponseEntity.ok().body(Tools.formJsonResponse(job));
+        }
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Tools.formJsonResponse(null));
     }
 
     @RequestMapping(value="/file/{id}", method=RequestMethod.PUT, consumes=MediaType.MULTIPART_FORM_DATA_VALUE, produces=MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<JsonResponse> updateDocument(@PathVariable(name="id") String id, @RequestPart("file") MultipartFile document) {
         try {
-            SolrDocumentList docs = solrClient.QuerySolrDocuments("id:" + id, 1000, 0, null);
-            solrClient.deleteDocuments("docId:" + id);
-            if (!docs.isEmpty()) {
-                SolrDocument doc = docs.get(0);
+            if (document.isEmpty()) {
+                //only touches the document, as an atomic update that also fails if it does not exist
+                Long version = solrClient.updateFields(id, Collections.singletonMap("lastUpdated", Tools.getFormattedDateTimeString(Instant.now())), 1L);
+                if (version == null) {
+                    return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Tools.formJsonResponse(null));
+                }
+                return ResponseEntity.ok().body(Tools.formJsonResponse(null));
+            }
+            SolrDocument doc = solrClient.getById(id);
+            if (doc == null) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Tools.formJsonResponse(null));
+            }
 
-                if (!document.isEmpty() && doc.containsKey("docStoreId")) { //uploaded file is being replaced
-                    String oldFileId = doc.get("docStoreId").toString();
-                    mongoClient.DeleteFile(oldFileId);
-                    String filename = document.getOriginalFilename();
-                    File uploadedFile = Tools.WriteFileToDisk(temporaryFileRepo + filename, document.getInputStream());
-                    ObjectId fileId = mongoClient.StoreFile(uploadedFile);
-                    doc.replace("docStoreId", fileId.toString());
-                    doc.replace("filename", filename);
-
-                    String contentType = Files.probeContentType(uploadedFile.toPath());
-                    if (contentType.compareTo("application/pdf") == 0) {
-                        String docText = Tools.extractPDFText(uploadedFile);
-                        if (doc.containsKey("docText")) {
-                            doc.replace("docText", docText);
-                        } else {
-                            doc.addField("docText", docText);
-                        }
-                        String category = Tools.removeUTF8BOM(categorizer.detectCategory(docText));
-                        if (doc.containsKey("category")) {
-                            doc.replace("category", category);
-                        } else {
-                            doc.addField("category", category);
-                        }
-                        String annotated = recognizer.autoAnnotate(docText, category, 0.5);
-                        if (doc.containsKey("annotated")) {
-                            doc.replace("annotated", annotated);
-                        } else {
-                            doc.addField("annotated", annotated);
-                        }
-
-                        //final Map<String, Double> entities = recognizer.detectNamedEntities(docText, category, 0.5);
-
-                        List<SolrDocument> locDocs = locationResolver.getLocationsFromDocument(docText, id);
-                        solrClient.indexDocuments(locDocs);
+            String filename = document.getOriginalFilename();
+            StagedUpload upload;
+            try (InputStream stream = document.getInputStream()) {
+                upload = IngestionPipeline.stageUpload(stream, filename);
+            }
+            //the replacement file is stored before the update so the document can refer to it, and the file that is
+            //not referenced by the document afterwards is deleted
+            String oldFileId = null;
+            String newFileId = null;
+            boolean updated = false;
+            try {
+                if (!upload.getContentHash().equals(doc.get("contentHash")) && doc.containsKey("docStoreId")) { //uploaded file is being replaced
+                    oldFileId = doc.get("docStoreId").toString();
+                    try (InputStream stream = new FileInputStream(upload.getFile())) {
+                        ObjectId fileId = mongoClient.StoreFile(stream, filename);
+                        newFileId = fileId.toString();
+                        doc.setField("docStoreId", newFileId);
                     }
                 }
 
-                String timestamp = Tools.getFormattedDateTimeString(Instant.now());
-                doc.replace("lastUpdated", timestamp);
-
-                solrClient.indexDocument(doc);
-                cleanupService.process();
-                return ResponseEntity.ok().body(Tools.formJsonResponse(null));
+                IngestionJob job = processor.update(doc, upload, filename);
+                if (job.getStatus() == IngestionJob.Status.REJECTED) {
+                    return ResponseEntity.unprocessableEntity().body(Tools.formJsonResponse(null));
+                }
+                updated = true;
+            } finally {
+                upload.getFile().delete();
+                if (updated && oldFileId != null) {
+                    mongoClient.DeleteFile(oldFileId);
+                } else if (!updated && newFileId != null) {
+                    mongoClient.DeleteFile(newFileId);
+                }
             }
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Tools.formJsonResponse(null));
+            return ResponseEntity.ok().body(Tools.formJsonResponse(null));
         } catch (Exception e) {
             logger.error(context.getRemoteAddr() + " -> " + e);
             Tools.getExceptions().add(e);
@@ -201,31 +361,30 @@ public class DocumentsController {
         }
     }
 
+    //Only the fields in metadata are sent, as atomic set operations.  When version is given (the _version_ the
+    //client last read) the update is rejected with 409 if the document has been changed since.
     @RequestMapping(value="/metadata/{id}", method=RequestMethod.PUT, consumes=MediaType.MULTIPART_FORM_DATA_VALUE, produces=MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<JsonResponse> updateDocument(@PathVariable(name="id") String id, @RequestPart("metadata") Map<String, Object> metadata) {
+    public ResponseEntity<JsonResponse> updateDocument(@PathVariable(name="id") String id, @RequestPart("metadata") Map<String, Object> metadata,
+                                                       @RequestParam(value="version", required=false) Long version) {
         try {
-            SolrDocumentList docs = solrClient.QuerySolrDocuments("id:" + id, 1000, 0, null);
-            if (!docs.isEmpty()) {
-                SolrDocument doc = docs.get(0);
-
-                metadata.entrySet().stream().forEach(p -> {
-                    if (doc.containsKey(p.getKey())) {
-                        doc.replace(p.getKey(), p.getValue());
-                    } else {
-                        doc.addField(p.getKey(), p.getValue());
-                    }
-                });
-
-                String timestamp = Tools.getFormattedDateTimeString(Instant.now());
-                doc.replace("lastUpdated", timestamp);
+            Map<String, Object> fields = new LinkedHashMap<>(metadata);
+            fields.remove("id");
+            fields.remove("_version_");
+            fields.put("lastUpdated", Tools.getFormattedDateTimeString(Instant.now()));
+
+            boolean versionChecked = version != null && version > 1;
+            Long newVersion = solrClient.updateFields(id, fields, versionChecked ? version : 1);
+            if (newVersion == null) {
+                //without a version the update can only fail because the document does not exist
+                HttpStatus status = versionChecked ? HttpStatus.CONFLICT : HttpStatus.BAD_REQUEST;
+                return ResponseEntity.status(status).body(Tools.formJsonResponse(null));
+            }
 
-                solrClient.indexDocument(doc);
-                if (metadata.keySet().contains("annotated")) {
-                    nerModelTrainingService.process(this, (String)doc.get("category"));
-                }
-                return ResponseEntity.ok().body(Tools.formJsonResponse(null));
+            if (metadata.keySet().contains("annotated")) {
+                SolrDocument doc = solrClient.getById(id, "category");
+                nerModelTrainingService.process(this, doc != null ? (String)doc.get("category") : null);
             }
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Tools.formJsonResponse(null));
+            return ResponseEntity.ok().body(Tools.formJsonResponse(Collections.singletonMap("_version_", newVersion)));
         } catch (Exception e) {
             logger.error(context.getRemoteAddr() + " -> " + e);
             Tools.getExceptions().add(e);
@@ -240,9 +399,8 @@ public class DocumentsController {
     @RequestMapping(value="/{id}", method=RequestMethod.DELETE, produces=MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<JsonResponse> deleteDocument(@PathVariable(name="id") String id) {
         try {
-            SolrDocumentList docs = solrClient.QuerySolrDocuments("id:" + id, 1000, 0, null);
-            if (!docs.isEmpty()) {
-                SolrDocument doc = docs.get(0);
+            SolrDocument doc = solrClient.getById(id, "id,docStoreId");
+            if (doc != null) {
                 if (doc.containsKey("docStoreId")) {
                     String fileId = doc.get("docStoreId").toString();
                     mongoClient.DeleteFile(fileId);
@@ -258,7 +416,24 @@ public class DocumentsController {
         }
     }
 
-    @RequestMapping(value="/{fileId}", method=RequestMethod.GET, produces=MediaType.APPLICATION_JSON_VALUE)
+    @RequestMapping(value="/{id}", method=RequestMethod.GET, produces=MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<JsonResponse> getDocument(@PathVariable(name="id") String id, @RequestParam(value="fields", required=false) String[] fields) {
+        logger.info(context.getRemoteAddr() + " -> " + "In getDocument method");
+        try {
+            SolrDocument doc = solrClient.getById(id, fields != null && fields.length > 0 ? String.join(",", fields) : null);
+            if (doc == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Tools.formJsonResponse(null));
+            }
+            return ResponseEntity.ok().body(Tools.formJsonResponse(doc));
+        } catch (Exception e) {
+            logger.error(context.getRemoteAddr() + " -> " + e);
+            Tools.getExceptions().add(e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Tools.formJsonResponse(null));
+        }
+    }
+
+    //GridFS file ids are 24 hex digit ObjectIds, which keeps downloads apart from document ids
+    @RequestMapping(value="/{fileId:[0-9a-fA-F]{24}}", method=RequestMethod.GET, produces=MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<InputStreamResource> downloadDocument(@PathVariable(name="fileId") String fileId) {
         logger.info(context.getRemoteAddr() + " -> " + "In downloadDocument method");
 
@@ -10,6 +10,7 @@ public class JsonResponse {
 	private Object data;
 	private final String timeStamp;
 	private List<String> exceptions = new ArrayList<String>();
+	private String nextCursor;
 	
 	public JsonResponse() {
 		timeStamp = Tools.getFormattedDateTimeString(Instant.now());
@@ -31,6 +32,15 @@ public class JsonResponse {
 		this.data = data;
 	}
 
+	//Cursor for the next page of a cursor paged query; null on the last page.
+	public String getNextCursor() {
+		return nextCursor;
+	}
+
+	public void setNextCursor(String nextCursor) {
+		this.nextCursor = nextCursor;
+	}
+
 	public List<String> getExceptions() {
 		return exceptions;
 	}
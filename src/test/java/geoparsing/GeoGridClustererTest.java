@@ -0,0 +1,115 @@
+package geoparsing;
+
+import org.apache.commons.math3.ml.clustering.Cluster;
+import org.apache.commons.math3.ml.clustering.Clusterable;
+import org.apache.commons.math3.ml.clustering.DBSCANClusterer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+//Checks GeoGridClusterer against the DBSCAN retry loop it replaced in LocationResolver, on random sets of
+//coordinates that include repeated and grid aligned points, for the radius steps LocationResolver uses.
+public class GeoGridClustererTest {
+
+    //compared by identity like GeoNameWithFrequencyScore, so that repeated coordinates stay separate points
+    private static class Location implements Clusterable {
+        private final double[] point;
+
+        private Location(double latitude, double longitude) {
+            point = new double[]{latitude, longitude};
+        }
+
+        @Override
+        public double[] getPoint() {
+            return point;
+        }
+
+        @Override
+        public String toString() {
+            return point[0] + "," + point[1];
+        }
+    }
+
+    //the original clustering, kept as the reference implementation
+    private static List<Location> clusterWithDBSCAN(List<Location> geoNames, double clusterRadius, int minClusterSize,
+                                                    double radiusIncrement, int maxIncrements, int incrementNum) {
+        List<Location> validOverall = new ArrayList<>();
+        if (geoNames.size() > 1) {
+            DBSCANClusterer<Location> clusterer = new DBSCANClusterer<>(clusterRadius, minClusterSize);
+            List<Cluster<Location>> clusters = clusterer.cluster(geoNames);
+            if (clusters.size() > 0) {
+                for (Cluster<Location> cluster : clusters) {
+                    validOverall.addAll(cluster.getPoints());
+                }
+            } else {
+                clusterRadius += radiusIncrement;
+                minClusterSize = minClusterSize / 2 < 1 ? 1 : minClusterSize / 2;
+                if (incrementNum <= maxIncrements) {
+                    return clusterWithDBSCAN(geoNames, clusterRadius, minClusterSize, radiusIncrement, maxIncrements, ++incrementNum);
+                }
+            }
+        } else {
+            validOverall.addAll(geoNames);
+        }
+        return validOverall;
+    }
+
+    private static final double[] RADII = {3, 1, 0.25};
+
+    @Test
+    public void matchesDBSCANOnRandomPoints() {
+        Random random = new Random(7);
+        GeoGridClusterer clusterer = new GeoGridClusterer(GeoGridClusterer.DistanceMeasure.DEGREES);
+        for (int n = 0; n < 20000; n++) {
+            int size = 2 + random.nextInt(40);
+            double spread = random.nextInt(3) == 0 ? 20 : 4;
+            List<Location> points = new ArrayList<>();
+            double[] latitudes = new double[size];
+            double[] longitudes = new double[size];
+            for (int i = 0; i < size; i++) {
+                double latitude = 25 + random.nextDouble() * spread;
+                double longitude = -120 + random.nextDouble() * spread * 2;
+                //repeat or shift the previous point so that some pairs lie exactly at the radius
+                if (i > 0 && random.nextInt(5) == 0) {
+                    latitude = latitudes[i - 1];
+                    longitude = longitudes[i - 1] + (random.nextBoolean() ? 0 : 0.25 * random.nextInt(3));
+                }
+                latitudes[i] = Math.round(latitude * 4) / 4.0;
+                longitudes[i] = longitude;
+                points.add(new Location(latitudes[i], longitudes[i]));
+            }
+            double radius = RADII[random.nextInt(RADII.length)];
+            int minClusterSize = size / 2 < 1 ? 1 : size / 2;
+            boolean wide = random.nextBoolean();
+            double radiusIncrement = wide ? 1 : 0.25;
+            int maxIncrements = wide ? 2 : 5;
+
+            Set<Location> expected = Collections.newSetFromMap(new IdentityHashMap<>());
+            expected.addAll(clusterWithDBSCAN(points, radius, minClusterSize, radiusIncrement, maxIncrements, 0));
+            boolean[] clustered = clusterer.cluster(latitudes, longitudes, radius, minClusterSize, radiusIncrement, maxIncrements);
+            Set<Location> actual = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (int i = 0; i < size; i++) {
+                if (clustered[i]) {
+                    actual.add(points.get(i));
+                }
+            }
+            assertEquals("case " + n, expected, actual);
+        }
+    }
+
+    @Test
+    public void haversineNarrowsLongitudeAwayFromEquator() {
+        //at 40 degrees north, 1.2 degrees of longitude are less than 1 degree of arc apart
+        GeoGridClusterer clusterer = new GeoGridClusterer(GeoGridClusterer.DistanceMeasure.HAVERSINE);
+        boolean[] clustered = clusterer.cluster(new double[]{40, 40, 42}, new double[]{-100, -101.2, -100}, 1, 1, 1, 0);
+        assertArrayEquals(new boolean[]{true, true, false}, clustered);
+    }
+}
@@ -0,0 +1,68 @@
+package nlp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+//Checks TextCleaner against the regex chain it replaced, on hand written cases covering each rule and on
+//random text drawn from the characters those rules treat specially.
+public class TextCleanerTest {
+
+    //the original cleanup, kept as the reference implementation
+    private static String cleanWithRegexChain(String document) {
+        document = document.replace("\r\n", "");
+        document = document.replace("(", " ");
+        document = document.replace(")", " ");
+        document = document.replaceAll("\\P{Print}", " ");
+        document = document.replaceAll("[%-*/:-?{-~!\"^_`\\[\\]+]", "");
+        document = document.replaceAll(" +\\.", ".");
+        document = document.replaceAll("\\.{2,}", ". ");
+        document = document.replaceAll(" {2,}", " ");
+
+        return document;
+    }
+
+    private static final String[] GOLDEN = {
+            "",
+            "Plain sentence.",
+            "Line one\r\nline two",
+            "Call (555) 123-4567 today",
+            "Percent 50% & <tags> {braces} [brackets] ~tilde| \"quotes\" 'single' ^caret_underscore `tick` +plus",
+            "Ellipsis... and more....",
+            "Spaces   before   .  period",
+            "Spaces before..  dots",
+            "Tab\tand\nnewline\u000Bcontrol",
+            "Unicode caf\u00E9 \u2014 dash \u00A0nbsp",
+            "Emoji \uD83D\uDE00 surrogate pair",
+            "Lone \uD83D high surrogate",
+            "( . ) ( .. )",
+            "a .b . . c",
+            " leading and trailing ",
+            "Numbers 1,234.56 and -7 $8 #9 @10",
+    };
+
+    private static final char[] ALPHABET = ("ab .,-$#@0 \r\n\t()%&*/:;<=>?{|}~!\"^_`[]+'\u00E9\u2014\u00A0\uD83D\uDE00").toCharArray();
+
+    @Test
+    public void matchesRegexChainOnGoldenCases() {
+        for (String document : GOLDEN) {
+            assertEquals(document, cleanWithRegexChain(document), TextCleaner.clean(document));
+        }
+    }
+
+    @Test
+    public void matchesRegexChainOnRandomText() {
+        Random random = new Random(42);
+        for (int n = 0; n < 20000; n++) {
+            StringBuilder document = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int i = 0; i < length; i++) {
+                document.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+            }
+            String text = document.toString();
+            assertEquals(text, cleanWithRegexChain(text), TextCleaner.clean(text));
+        }
+    }
+}